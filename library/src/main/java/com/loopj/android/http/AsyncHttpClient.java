@@ -26,15 +26,10 @@ import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 
 import cz.msebera.android.httpclient.Header;
@@ -65,6 +60,7 @@ import cz.msebera.android.httpclient.client.methods.HttpPut;
 import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
 import cz.msebera.android.httpclient.client.params.ClientPNames;
 import cz.msebera.android.httpclient.client.protocol.ClientContext;
+import cz.msebera.android.httpclient.client.utils.URIUtils;
 import cz.msebera.android.httpclient.conn.ClientConnectionManager;
 import cz.msebera.android.httpclient.conn.params.ConnManagerParams;
 import cz.msebera.android.httpclient.conn.params.ConnPerRouteBean;
@@ -127,17 +123,24 @@ public class AsyncHttpClient {
     public static final int DEFAULT_SOCKET_TIMEOUT = 10 * 1000;
     public static final int DEFAULT_MAX_RETRIES = 5;
     public static final int DEFAULT_RETRY_SLEEP_TIME_MILLIS = 1500;
+    public static final int DEFAULT_MAX_RETRY_SLEEP_TIME_MILLIS = 10 * 1000;
     public static final int DEFAULT_SOCKET_BUFFER_SIZE = 8192;
     public static LogInterface log = new LogHandler();
     private final DefaultHttpClient httpClient;
     private final HttpContext httpContext;
-    private final Map<Context, List<RequestHandle>> requestMap;
+    private final RequestRegistry requestRegistry;
     private final Map<String, String> clientHeaderMap;
+    private final HostRequestDispatcher hostDispatcher;
+    private final RequestCoalescer requestCoalescer;
     private int maxConnections = DEFAULT_MAX_CONNECTIONS;
     private int connectTimeout = DEFAULT_SOCKET_TIMEOUT;
     private int responseTimeout = DEFAULT_SOCKET_TIMEOUT;
     private ExecutorService threadPool;
+    private ParseExecutor parseExecutor;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
     private boolean isUrlEncodingEnabled = true;
+    private boolean isRequestCoalescingEnabled;
 
     /**
      * Creates a new AsyncHttpClient with default constructor arguments values
@@ -200,11 +203,13 @@ public class AsyncHttpClient {
         Utils.asserts(cm != null, "Custom implementation of #createConnectionManager(SchemeRegistry, BasicHttpParams) returned null");
 
         threadPool = getDefaultThreadPool();
-        requestMap = Collections.synchronizedMap(new WeakHashMap<Context, List<RequestHandle>>());
+        requestRegistry = new RequestRegistry();
         clientHeaderMap = new HashMap<String, String>();
 
         httpContext = new SyncBasicHttpContext(new BasicHttpContext());
         httpClient = new DefaultHttpClient(cm, httpParams);
+        hostDispatcher = new HostRequestDispatcher(httpClient.getParams());
+        requestCoalescer = new RequestCoalescer();
         httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
             @Override
             public void process(HttpRequest request, HttpContext context) {
@@ -315,15 +320,31 @@ public class AsyncHttpClient {
         return schemeRegistry;
     }
 
+    /**
+     * Makes failures by given exception class retryable for all clients in the process
+     *
+     * @param cls exception class
+     * @deprecated use {@link RetryPolicy#allowRetryExceptionClass(Class)} of {@link
+     * #getRetryPolicy()}, which applies to a single client
+     */
+    @Deprecated
     public static void allowRetryExceptionClass(Class<?> cls) {
         if (cls != null) {
-            RetryHandler.addClassToWhitelist(cls);
+            RetryPolicy.addGlobalAllowed(cls);
         }
     }
 
+    /**
+     * Prevents retries of failures by given exception class for all clients in the process
+     *
+     * @param cls exception class
+     * @deprecated use {@link RetryPolicy#blockRetryExceptionClass(Class)} of {@link
+     * #getRetryPolicy()}, which applies to a single client
+     */
+    @Deprecated
     public static void blockRetryExceptionClass(Class<?> cls) {
         if (cls != null) {
-            RetryHandler.addClassToBlacklist(cls);
+            RetryPolicy.addGlobalBlocked(cls);
         }
     }
 
@@ -546,8 +567,8 @@ public class AsyncHttpClient {
     }
 
     /**
-     * Returns the current executor service used. By default, Executors.newCachedThreadPool() is
-     * used.
+     * Returns the current executor service used. By default, {@link RequestScheduler} bounded by
+     * {@link #getMaxConnections()} is used.
      *
      * @return current executor service used
      */
@@ -557,7 +578,7 @@ public class AsyncHttpClient {
 
     /**
      * Overrides the threadpool implementation used when queuing/pooling requests. By default,
-     * Executors.newCachedThreadPool() is used.
+     * {@link RequestScheduler} bounded by {@link #getMaxConnections()} is used.
      *
      * @param threadPool an instance of {@link ExecutorService} to use for queuing/pooling
      *                   requests.
@@ -572,7 +593,62 @@ public class AsyncHttpClient {
      * @return The default threading pool to be used
      */
     protected ExecutorService getDefaultThreadPool() {
-        return Executors.newCachedThreadPool();
+        return new RequestScheduler(RequestScheduler.getDefaultWorkerCount(maxConnections));
+    }
+
+    /**
+     * Returns executor on which response handlers of this client deserialize responses, by
+     * default the shared {@link ParseExecutor#getDefault()} instance.
+     *
+     * @return current parse executor
+     */
+    public ParseExecutor getParseExecutor() {
+        return parseExecutor == null ? ParseExecutor.getDefault() : parseExecutor;
+    }
+
+    /**
+     * Sets executor on which response handlers of this client deserialize responses, handlers
+     * which were given their own executor through {@link
+     * AsyncHttpResponseHandler#setParseExecutor(java.util.concurrent.Executor)} keep using it.
+     *
+     * @param parseExecutor bounded parse executor, null to use the shared default one
+     */
+    public void setParseExecutor(ParseExecutor parseExecutor) {
+        this.parseExecutor = parseExecutor;
+    }
+
+    /**
+     * Returns number of requests waiting for a free worker thread, if current thread pool is
+     * {@link RequestScheduler}
+     *
+     * @return number of queued requests, always 0 for custom thread pool implementations
+     */
+    public int getQueuedRequestCount() {
+        return threadPool instanceof RequestScheduler ? ((RequestScheduler) threadPool).getQueueDepth() : 0;
+    }
+
+    /**
+     * Returns number of requests waiting for given host to get under its limit of concurrently
+     * running requests, see {@link #setMaxRequestsPerHost(String, int)}
+     *
+     * @param hostname host name, case insensitive
+     * @return number of requests held back for the host
+     */
+    public int getQueuedRequestCount(String hostname) {
+        return hostDispatcher.getWaitingCount(hostname);
+    }
+
+    /**
+     * Sets limit of concurrently running requests for given host, requests over the limit wait
+     * without occupying a worker thread. By default the limit is maximum connections per route,
+     * see {@link #setMaxConnections(int)}.
+     *
+     * @param hostname host name, case insensitive
+     * @param limit    maximum of concurrently running requests, values lower than 1 restore the
+     *                 default limit
+     */
+    public void setMaxRequestsPerHost(String hostname, int limit) {
+        hostDispatcher.setMaxRequestsPerHost(hostname, limit);
     }
 
     /**
@@ -661,6 +737,9 @@ public class AsyncHttpClient {
         this.maxConnections = maxConnections;
         final HttpParams httpParams = this.httpClient.getParams();
         ConnManagerParams.setMaxConnectionsPerRoute(httpParams, new ConnPerRouteBean(this.maxConnections));
+        if (threadPool instanceof RequestScheduler) {
+            ((RequestScheduler) threadPool).setWorkerCount(RequestScheduler.getDefaultWorkerCount(this.maxConnections));
+        }
     }
 
     /**
@@ -762,7 +841,9 @@ public class AsyncHttpClient {
     }
 
     /**
-     * Sets the maximum number of retries and timeout for a particular Request.
+     * Sets the maximum number of retries and timeout for a particular Request. Timeout is the base
+     * delay of exponential backoff, see {@link #setMaxRetriesAndBackoff(int, int, int)}, capped by
+     * {@link #DEFAULT_MAX_RETRY_SLEEP_TIME_MILLIS}.
      *
      * @param retries maximum number of retries per request
      * @param timeout sleep between retries in milliseconds
@@ -771,6 +852,64 @@ public class AsyncHttpClient {
         this.httpClient.setHttpRequestRetryHandler(new RetryHandler(retries, timeout));
     }
 
+    /**
+     * Returns circuit breaker guarding requests of this client, it is kept when retry settings
+     * change
+     *
+     * @return circuit breaker, null if disabled, which is the default
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets circuit breaker guarding requests of this client. By default there is none, requests
+     * are retried as configured and never fail fast. Breaker can be shared by several clients
+     * talking to the same hosts.
+     *
+     * @param circuitBreaker circuit breaker, null to disable circuit breaking and retry budget
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns rules deciding which failures and responses with retryable status, such as 429
+     * and 503, are retried. It is kept when retry settings change.
+     *
+     * @return retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets rules deciding which failures and responses are retried. By default every client has
+     * its own {@link RetryPolicy}, which retries idempotent requests aggressively and other
+     * requests only if they were not sent, and retries idempotent requests on 429 and 503
+     * responses. Number of status retries counts towards maximum retries, see {@link
+     * #setMaxRetriesAndTimeout(int, int)}.
+     *
+     * @param retryPolicy retry policy, null to restore the default one
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? new RetryPolicy() : retryPolicy;
+    }
+
+    /**
+     * Sets the maximum number of retries and exponential backoff between them. Delay before each
+     * retry is random, between zero and base delay doubled for every previous retry, but at most
+     * the maximum delay. Worker threads are not blocked while waiting for retry.
+     *
+     * @param retries   maximum number of retries per request
+     * @param baseDelay upper bound of the first delay in milliseconds
+     * @param maxDelay  upper bound of every delay in milliseconds, must not be lower than
+     *                  baseDelay
+     */
+    public void setMaxRetriesAndBackoff(int retries, int baseDelay, int maxDelay) {
+        this.httpClient.setHttpRequestRetryHandler(new RetryHandler(retries, baseDelay, maxDelay));
+    }
+
     /**
      * Will, before sending, remove all headers currently present in AsyncHttpClient instance, which
      * applies on all requests this client makes
@@ -920,8 +1059,7 @@ public class AsyncHttpClient {
             return;
         }
 
-        final List<RequestHandle> requestList = requestMap.get(context);
-        requestMap.remove(context);
+        final Collection<RequestHandle> requestList = requestRegistry.removeContext(context);
 
         if (Looper.myLooper() == Looper.getMainLooper()) {
             Runnable runnable = new Runnable() {
@@ -936,7 +1074,7 @@ public class AsyncHttpClient {
         }
     }
 
-    private void cancelRequests(final List<RequestHandle> requestList, final boolean mayInterruptIfRunning) {
+    private void cancelRequests(final Collection<RequestHandle> requestList, final boolean mayInterruptIfRunning) {
         if (requestList != null) {
             for (RequestHandle requestHandle : requestList) {
                 requestHandle.cancel(mayInterruptIfRunning);
@@ -954,20 +1092,14 @@ public class AsyncHttpClient {
      *                              pending requests.
      */
     public void cancelAllRequests(boolean mayInterruptIfRunning) {
-        for (List<RequestHandle> requestList : requestMap.values()) {
-            if (requestList != null) {
-                for (RequestHandle requestHandle : requestList) {
-                    requestHandle.cancel(mayInterruptIfRunning);
-                }
-            }
-        }
-        requestMap.clear();
+        cancelRequests(requestRegistry.removeAllContexts(), mayInterruptIfRunning);
     }
 
     /**
      * Allows you to cancel all requests currently in queue or running, by set TAG,
      * if passed TAG is null, will not attempt to cancel any requests, if TAG is null
-     * on RequestHandle, it cannot be canceled by this call
+     * on RequestHandle, it cannot be canceled by this call. TAG has to be set either on the
+     * response handler before the request is sent, or through {@link RequestHandle#setTag(Object)}
      *
      * @param TAG                   TAG to be matched in RequestHandle
      * @param mayInterruptIfRunning specifies if active requests should be cancelled along with
@@ -978,14 +1110,7 @@ public class AsyncHttpClient {
             log.d(LOG_TAG, "cancelRequestsByTAG, passed TAG is null, cannot proceed");
             return;
         }
-        for (List<RequestHandle> requestList : requestMap.values()) {
-            if (requestList != null) {
-                for (RequestHandle requestHandle : requestList) {
-                    if (TAG.equals(requestHandle.getTag()))
-                        requestHandle.cancel(mayInterruptIfRunning);
-                }
-            }
-        }
+        cancelRequests(requestRegistry.getByTag(TAG), mayInterruptIfRunning);
     }
 
     // [-] HTTP HEAD
@@ -1555,28 +1680,51 @@ public class AsyncHttpClient {
         responseHandler.setRequestHeaders(uriRequest.getAllHeaders());
         responseHandler.setRequestURI(uriRequest.getURI());
 
+        if (parseExecutor != null && responseHandler instanceof AsyncHttpResponseHandler
+                && !((AsyncHttpResponseHandler) responseHandler).hasParseExecutor()) {
+            ((AsyncHttpResponseHandler) responseHandler).setParseExecutor(parseExecutor);
+        }
+
+        if (isRequestCoalescingEnabled && client == httpClient && httpContext == this.httpContext
+                && RequestCoalescer.isCoalescable(uriRequest, responseHandler)) {
+            return sendCoalescedRequest(client, httpContext, uriRequest, contentType, responseHandler, context);
+        }
+
         AsyncHttpRequest request = newAsyncHttpRequest(client, httpContext, uriRequest, contentType, responseHandler, context);
-        threadPool.submit(request);
+        prepareRequest(request);
         RequestHandle requestHandle = new RequestHandle(request);
+        requestRegistry.register(context, requestHandle, request);
+        if (responseHandler instanceof FutureResponseHandler) {
+            ((FutureResponseHandler) responseHandler).setRequestHandle(requestHandle);
+        }
+        hostDispatcher.dispatch(request, URIUtils.extractHost(uriRequest.getURI()), threadPool);
 
-        if (context != null) {
-            List<RequestHandle> requestList;
-            // Add request to request map
-            synchronized (requestMap) {
-                requestList = requestMap.get(context);
-                if (requestList == null) {
-                    requestList = Collections.synchronizedList(new LinkedList<RequestHandle>());
-                    requestMap.put(context, requestList);
-                }
-            }
+        return requestHandle;
+    }
 
-            requestList.add(requestHandle);
+    /**
+     * Applies client-wide retry and circuit breaking rules to the request
+     *
+     * @param request request about to be executed
+     */
+    void prepareRequest(AsyncHttpRequest request) {
+        request.setCircuitBreaker(circuitBreaker);
+        request.setRetryPolicy(retryPolicy);
+    }
 
-            Iterator<RequestHandle> iterator = requestList.iterator();
-            while (iterator.hasNext()) {
-                if (iterator.next().shouldBeGarbageCollected()) {
-                    iterator.remove();
-                }
+    private RequestHandle sendCoalescedRequest(DefaultHttpClient client, HttpContext httpContext, HttpUriRequest uriRequest, String contentType, ResponseHandlerInterface responseHandler, Context context) {
+        RequestCoalescer.CoalescedRequest request = requestCoalescer.subscribe(client, httpContext, uriRequest, responseHandler);
+        RequestHandle requestHandle = new RequestHandle(request);
+        requestRegistry.register(context, requestHandle, request);
+        if (responseHandler instanceof FutureResponseHandler) {
+            ((FutureResponseHandler) responseHandler).setRequestHandle(requestHandle);
+        }
+
+        if (request.isFirstSubscriber()) {
+            AsyncHttpRequest shared = newAsyncHttpRequest(client, httpContext, uriRequest, contentType, request.getSharedHandler(), context);
+            prepareRequest(shared);
+            if (requestCoalescer.start(request, shared)) {
+                hostDispatcher.dispatch(shared, URIUtils.extractHost(uriRequest.getURI()), threadPool);
             }
         }
 
@@ -1632,6 +1780,29 @@ public class AsyncHttpClient {
         return isUrlEncodingEnabled;
     }
 
+    /**
+     * Sets state of request coalescing. If enabled, concurrent GET and HEAD requests without body,
+     * which have the same URL and the same cache-relevant headers (Accept*, Authorization, Cookie,
+     * Range, conditional and cache control headers), share a single network request. Response is
+     * buffered once and every response handler receives its own copy, so memory use grows with
+     * size of coalesced responses. Cancelling one handle doesn't affect the others. Default is
+     * false.
+     *
+     * @param enabled desired state of the feature
+     */
+    public void setRequestCoalescingEnabled(boolean enabled) {
+        this.isRequestCoalescingEnabled = enabled;
+    }
+
+    /**
+     * Returns whether identical concurrent GET and HEAD requests share single network request
+     *
+     * @return boolean
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return isRequestCoalescingEnabled;
+    }
+
     /**
      * Applicable only to HttpRequest methods extending HttpEntityEnclosingRequestBase, which is for
      * example not DELETE
@@ -18,16 +18,27 @@
 
 package com.loopj.android.http;
 
+import android.os.SystemClock;
+
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpEntityEnclosingRequest;
 import cz.msebera.android.httpclient.HttpResponse;
 import cz.msebera.android.httpclient.client.HttpRequestRetryHandler;
 import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
 import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
 import cz.msebera.android.httpclient.protocol.HttpContext;
+import cz.msebera.android.httpclient.util.EntityUtils;
 
 /**
  * Internal class, representing the HttpRequest, done in asynchronous manner
@@ -38,10 +49,20 @@ public class AsyncHttpRequest implements Runnable {
     private final HttpUriRequest request;
     private final ResponseHandlerInterface responseHandler;
     private final AtomicBoolean isCancelled = new AtomicBoolean();
+    private final List<CompletionListener> completionListeners = new ArrayList<CompletionListener>();
     private int executionCount;
     private boolean cancelIsNotified;
     private volatile boolean isFinished;
+    private volatile boolean isStarted;
+    private boolean isCompleted;
     private boolean isRequestPreProcessed;
+    private volatile RequestPriority priority = RequestPriority.NORMAL;
+    private volatile ExecutorService executor;
+    private volatile HostRequestDispatcher dispatcher;
+    private volatile ScheduledFuture<?> pendingRetry;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile RetryPolicy retryPolicy;
+    private long retryAfterWaited;
 
     public AsyncHttpRequest(AbstractHttpClient client, HttpContext context, HttpUriRequest request, ResponseHandlerInterface responseHandler) {
         this.client = Utils.notNull(client, "client");
@@ -82,28 +103,45 @@ public class AsyncHttpRequest implements Runnable {
 
     @Override
     public void run() {
+        isStarted = true;
+        boolean completed = true;
+        try {
+            completed = runRequest();
+        } finally {
+            if (completed) {
+                notifyCompleted();
+            }
+        }
+    }
+
+    /**
+     * @return false if the request is waiting for a scheduled retry, true once it is done
+     */
+    private boolean runRequest() {
         if (isCancelled()) {
-            return;
+            return true;
         }
 
-        // Carry out pre-processing for this request only once.
+        // Carry out pre-processing for this request only once, it is run again after retry delay
         if (!isRequestPreProcessed) {
             isRequestPreProcessed = true;
             onPreProcessRequest(this);
-        }
 
-        if (isCancelled()) {
-            return;
-        }
+            if (isCancelled()) {
+                return true;
+            }
 
-        responseHandler.sendStartMessage();
+            responseHandler.sendStartMessage();
+        }
 
         if (isCancelled()) {
-            return;
+            return true;
         }
 
         try {
-            makeRequestWithRetries();
+            if (!makeRequestWithRetries()) {
+                return false;
+            }
         } catch (IOException e) {
             if (!isCancelled()) {
                 responseHandler.sendFailureMessage(0, null, null, e);
@@ -113,19 +151,20 @@ public class AsyncHttpRequest implements Runnable {
         }
 
         if (isCancelled()) {
-            return;
+            return true;
         }
 
         responseHandler.sendFinishMessage();
 
         if (isCancelled()) {
-            return;
+            return true;
         }
 
         // Carry out post-processing for this request.
         onPostProcessRequest(this);
 
         isFinished = true;
+        return true;
     }
 
     private void makeRequest() throws IOException {
@@ -140,15 +179,56 @@ public class AsyncHttpRequest implements Runnable {
         }
 
         if (responseHandler instanceof RangeFileAsyncHttpResponseHandler) {
-            ((RangeFileAsyncHttpResponseHandler) responseHandler).updateRequestHeaders(request);
+            RangeFileAsyncHttpResponseHandler rangeHandler = (RangeFileAsyncHttpResponseHandler) responseHandler;
+            rangeHandler.setHttpClient(client, context, circuitBreaker);
+            rangeHandler.updateRequestHeaders(request);
+        }
+
+        CircuitBreaker _circuitBreaker = circuitBreaker;
+        String host = request.getURI().getHost();
+        if (_circuitBreaker == null || host == null) {
+            _circuitBreaker = null;
+        } else if (!_circuitBreaker.allowRequest(host, executionCount > 0)) {
+            throw new CircuitOpenException(host);
+        }
+
+        HttpResponse response;
+        try {
+            response = client.execute(request, context);
+        } catch (IOException e) {
+            if (_circuitBreaker != null && !isCancelled()) {
+                _circuitBreaker.onFailure(host);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            if (_circuitBreaker != null && !isCancelled()) {
+                _circuitBreaker.onFailure(host);
+            }
+            throw e;
         }
 
-        HttpResponse response = client.execute(request, context);
+        if (_circuitBreaker != null) {
+            if (response.getStatusLine().getStatusCode() >= 500) {
+                _circuitBreaker.onFailure(host);
+            } else {
+                _circuitBreaker.onSuccess(host);
+            }
+        }
 
         if (isCancelled()) {
             return;
         }
 
+        long statusRetryDelay = getStatusRetryDelay(response, host);
+        if (statusRetryDelay >= 0) {
+            try {
+                EntityUtils.consume(response.getEntity());
+            } catch (IOException e) {
+                AsyncHttpClient.log.w("AsyncHttpRequest", "Cannot release response to be retried", e);
+            }
+            throw new StatusRetryException(response.getStatusLine().getStatusCode(), statusRetryDelay);
+        }
+
         // Carry out pre-processing for this response.
         responseHandler.onPreProcessResponse(responseHandler, response);
 
@@ -167,37 +247,97 @@ public class AsyncHttpRequest implements Runnable {
         responseHandler.onPostProcessResponse(responseHandler, response);
     }
 
-    private void makeRequestWithRetries() throws IOException {
+    /**
+     * Decides whether the response should be retried according to {@link RetryPolicy}, within
+     * maximum retries of the retry handler and retry budget of the host
+     *
+     * @return delay before the retry in milliseconds, -1 if the response should be delivered
+     */
+    private long getStatusRetryDelay(HttpResponse response, String host) {
+        RetryPolicy _retryPolicy = retryPolicy;
+        if (_retryPolicy == null || !_retryPolicy.isRetryableStatus(request.getMethod(), response.getStatusLine().getStatusCode())) {
+            return -1;
+        }
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return -1;
+            }
+        }
+        HttpRequestRetryHandler retryHandler = client.getHttpRequestRetryHandler();
+        int maxRetries = retryHandler instanceof RetryHandler ? ((RetryHandler) retryHandler).getMaxRetries() : AsyncHttpClient.DEFAULT_MAX_RETRIES;
+        if (executionCount + 1 > maxRetries) {
+            return -1;
+        }
+        long delay = RetryPolicy.getRetryAfter(response);
+        if (delay < 0) {
+            delay = retryHandler instanceof RetryHandler ? ((RetryHandler) retryHandler).getRetryDelay(executionCount + 1) : 0;
+        }
+        if (delay > _retryPolicy.getMaxRetryAfter() - retryAfterWaited) {
+            return -1;
+        }
+        CircuitBreaker _circuitBreaker = circuitBreaker;
+        if (_circuitBreaker != null && host != null && !_circuitBreaker.tryAcquireRetry(host)) {
+            return -1;
+        }
+        retryAfterWaited += delay;
+        return delay;
+    }
+
+    /**
+     * @return true if the request got executed, false if retry was scheduled on {@link
+     * SharedTimer} and this request will be run again once the retry delay elapses
+     */
+    private boolean makeRequestWithRetries() throws IOException {
         boolean retry = true;
         IOException cause = null;
         HttpRequestRetryHandler retryHandler = client.getHttpRequestRetryHandler();
         try {
             while (retry) {
+                long statusRetryDelay = -1;
                 try {
                     makeRequest();
-                    return;
+                    return true;
+                } catch (StatusRetryException e) {
+                    // budget and limits were already checked while deciding about the retry
+                    ++executionCount;
+                    cause = e;
+                    statusRetryDelay = e.delay;
+                } catch (CircuitOpenException e) {
+                    // failing fast, retrying would only hit the open circuit again
+                    cause = e;
+                    retry = false;
                 } catch (UnknownHostException e) {
                     // switching between WI-FI and mobile data networks can cause a retry which then results in an UnknownHostException
                     // while the WI-FI is initialising. The retry logic will be invoked here, if this is NOT the first retry
                     // (to assist in genuine cases of unknown host) which seems better than outright failure
                     cause = new IOException("UnknownHostException exception: " + e.getMessage(), e);
-                    retry = (executionCount > 0) && retryHandler.retryRequest(e, ++executionCount, context);
+                    retry = (executionCount > 0) && retryRequest(retryHandler, e);
                 } catch (NullPointerException e) {
                     // there's a bug in HttpClient 4.0.x that on some occasions causes
                     // DefaultRequestExecutor to throw an NPE, see
                     // https://code.google.com/p/android/issues/detail?id=5255
                     cause = new IOException("NPE in HttpClient: " + e.getMessage());
-                    retry = retryHandler.retryRequest(cause, ++executionCount, context);
+                    retry = retryRequest(retryHandler, cause);
                 } catch (IOException e) {
                     if (isCancelled()) {
                         // Eating exception, as the request was cancelled
-                        return;
+                        return true;
                     }
                     cause = e;
-                    retry = retryHandler.retryRequest(cause, ++executionCount, context);
+                    retry = retryRequest(retryHandler, cause);
                 }
                 if (retry) {
                     responseHandler.sendRetryMessage(executionCount);
+                    long delay = statusRetryDelay >= 0 ? statusRetryDelay
+                            : retryHandler instanceof RetryHandler ? ((RetryHandler) retryHandler).getRetryDelay(executionCount) : 0;
+                    if (delay > 0) {
+                        if (scheduleRetry(delay)) {
+                            return false;
+                        }
+                        // not run by an executor, e.g. by SyncHttpClient, so wait in place
+                        SystemClock.sleep(delay);
+                    }
                 }
             }
         } catch (Exception e) {
@@ -210,6 +350,51 @@ public class AsyncHttpRequest implements Runnable {
         throw (cause);
     }
 
+    private boolean retryRequest(HttpRequestRetryHandler retryHandler, IOException cause) {
+        ++executionCount;
+        boolean retry;
+        if (retryHandler instanceof RetryHandler) {
+            retry = ((RetryHandler) retryHandler).shouldRetry(cause, executionCount, request, context, retryPolicy);
+        } else {
+            // custom handlers wait before returning, if they wish to
+            retry = retryHandler.retryRequest(cause, executionCount, context);
+        }
+        CircuitBreaker _circuitBreaker = circuitBreaker;
+        String host = request.getURI().getHost();
+        if (retry && _circuitBreaker != null && host != null && !_circuitBreaker.tryAcquireRetry(host)) {
+            AsyncHttpClient.log.d("AsyncHttpRequest", "Retry budget of " + host + " exhausted, not retrying");
+            return false;
+        }
+        return retry;
+    }
+
+    /**
+     * Re-submits this request to its executor once the delay elapses, the worker thread is free
+     * in the meantime
+     *
+     * @param delay delay in milliseconds
+     * @return false if this request is not run by an executor
+     */
+    private boolean scheduleRetry(long delay) {
+        final ExecutorService _executor = executor;
+        if (_executor == null) {
+            return false;
+        }
+        pendingRetry = SharedTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingRetry = null;
+                try {
+                    _executor.submit(AsyncHttpRequest.this);
+                } catch (RejectedExecutionException e) {
+                    AsyncHttpClient.log.w("AsyncHttpRequest", "Executor rejected retry, cancelling request", e);
+                    cancel(false);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
     public boolean isCancelled() {
         boolean cancelled = isCancelled.get();
         if (cancelled) {
@@ -231,8 +416,135 @@ public class AsyncHttpRequest implements Runnable {
 
     public boolean cancel(boolean mayInterruptIfRunning) {
         isCancelled.set(true);
+        abort();
+        boolean cancelled = isCancelled();
+        if (!isStarted || SharedTimer.cancel(pendingRetry)) {
+            // request will never be run, or will return immediately once it is
+            notifyCompleted();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Aborts underlying HttpUriRequest, called once the request got cancelled
+     */
+    void abort() {
         request.abort();
-        return isCancelled();
+    }
+
+    /**
+     * Marks this request as finished without running it, for requests which are fulfilled by
+     * other means than executing their own HttpUriRequest
+     */
+    void markFinished() {
+        isFinished = true;
+        notifyCompleted();
+    }
+
+    /**
+     * Registers listener to be notified once this request is completed, either by finishing its
+     * run or by being cancelled before it was started. Listeners are called exactly once, on the
+     * thread which completed the request.
+     *
+     * @param listener listener to be notified, must not be null
+     */
+    void addCompletionListener(CompletionListener listener) {
+        Utils.notNull(listener, "listener");
+        synchronized (completionListeners) {
+            if (!isCompleted) {
+                completionListeners.add(listener);
+                return;
+            }
+        }
+        listener.onRequestCompleted(this);
+    }
+
+    private void notifyCompleted() {
+        List<CompletionListener> listeners;
+        synchronized (completionListeners) {
+            if (isCompleted) {
+                return;
+            }
+            isCompleted = true;
+            listeners = new ArrayList<CompletionListener>(completionListeners);
+            completionListeners.clear();
+        }
+        for (CompletionListener listener : listeners) {
+            try {
+                listener.onRequestCompleted(this);
+            } catch (Throwable t) {
+                AsyncHttpClient.log.e("AsyncHttpRequest", "CompletionListener thrown an error", t);
+            }
+        }
+    }
+
+    /**
+     * Sets circuit breaker guarding executions of this request, usually the one of {@link
+     * AsyncHttpClient#getCircuitBreaker()}
+     *
+     * @param circuitBreaker circuit breaker, null to execute without it
+     */
+    void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Sets rules for retrying responses with retryable status, usually the ones of {@link
+     * AsyncHttpClient#getRetryPolicy()}
+     *
+     * @param retryPolicy retry rules, null to never retry based on status
+     */
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Queues this request for execution on given executor
+     *
+     * @param executor executor to run this request, usually {@link AsyncHttpClient#getThreadPool()}
+     */
+    void submitTo(ExecutorService executor) {
+        this.executor = executor;
+        executor.submit(this);
+    }
+
+    /**
+     * Remembers dispatcher holding this request until its host gets under the limit, so that
+     * {@link #setPriority(RequestPriority)} can move it in the dispatcher's queue
+     *
+     * @param dispatcher dispatcher, which queued this request
+     */
+    void setDispatcher(HostRequestDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Returns scheduling priority of this request
+     *
+     * @return priority, {@link RequestPriority#NORMAL} by default
+     */
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets scheduling priority of this request, if the request is already waiting in queue of
+     * {@link RequestScheduler} or in per-host queue, it will be moved accordingly
+     *
+     * @param priority new priority, must not be null
+     * @return this AsyncHttpRequest to allow fluid syntax
+     */
+    public AsyncHttpRequest setPriority(RequestPriority priority) {
+        this.priority = Utils.notNull(priority, "priority");
+        HostRequestDispatcher _dispatcher = dispatcher;
+        if (_dispatcher != null) {
+            _dispatcher.reprioritize(this);
+        }
+        ExecutorService _executor = executor;
+        if (_executor instanceof RequestScheduler) {
+            ((RequestScheduler) _executor).reprioritize(this);
+        }
+        return this;
     }
 
     /**
@@ -254,4 +566,25 @@ public class AsyncHttpRequest implements Runnable {
     public Object getTag() {
         return this.responseHandler.getTag();
     }
+
+    /**
+     * Signals that response got a retryable status and the request should be retried
+     */
+    private static class StatusRetryException extends IOException {
+        private static final long serialVersionUID = 2914405386529851763L;
+        final long delay;
+
+        StatusRetryException(int statusCode, long delay) {
+            super("Retrying request on status " + statusCode);
+            this.delay = delay;
+        }
+    }
+
+    /**
+     * Internal callback of the library components, which have to release resources held on
+     * behalf of the request once it is done
+     */
+    interface CompletionListener {
+        void onRequestCompleted(AsyncHttpRequest request);
+    }
 }
@@ -22,18 +22,21 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.HttpEntity;
 import cz.msebera.android.httpclient.HttpResponse;
 import cz.msebera.android.httpclient.StatusLine;
 import cz.msebera.android.httpclient.client.HttpResponseException;
-import cz.msebera.android.httpclient.util.ByteArrayBuffer;
 
 /**
  * Used to intercept and handle the responses from requests made using {@link AsyncHttpClient}. The
@@ -78,6 +81,12 @@ import cz.msebera.android.httpclient.util.ByteArrayBuffer;
  *     }
  * });
  * </pre>
+ * <p>&nbsp;</p> Arguments of {@link #SUCCESS_MESSAGE}, {@link #FAILURE_MESSAGE}, {@link
+ * #PROGRESS_MESSAGE} and {@link #RETRY_MESSAGE} travel in {@link Message#arg1}, {@link
+ * Message#arg2} and pooled objects internal to the library, so messages are delivered without
+ * allocating. Subclasses outside of this library which override {@link #handleMessage(Message)}
+ * and read the message themselves still get {@code Object[]} payloads as before, status code,
+ * headers, body and throwable, or written and total bytes, or the retry number.
  */
 @SuppressWarnings("DesignForExtension")
 public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterface {
@@ -91,8 +100,17 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
     protected static final int PROGRESS_MESSAGE = 4;
     protected static final int RETRY_MESSAGE = 5;
     protected static final int CANCEL_MESSAGE = 6;
+    protected static final int SUCCESS_BODY_MESSAGE = 8;
+    protected static final int FAILURE_BODY_MESSAGE = 9;
     protected static final int BUFFER_SIZE = 4096;
+    public static final long DEFAULT_SPILL_THRESHOLD = 8 * 1024 * 1024;
+    public static final long DEFAULT_PROGRESS_MIN_BYTES = 1024 * 1024;
+    public static final int DEFAULT_PROGRESS_MIN_PERCENT = 1;
+    public static final long DEFAULT_PROGRESS_MIN_INTERVAL_MILLIS = 250;
     private static final String LOG_TAG = "AsyncHttpRH";
+    private static final ConcurrentHashMap<Class<?>, Boolean> legacyMessageClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+    // subclass reads Object[] message payloads in its own handleMessage()
+    private final boolean legacyMessages = usesLegacyMessages(getClass());
     private String responseCharset = DEFAULT_CHARSET;
     private Handler handler;
     private boolean useSynchronousMode;
@@ -102,6 +120,20 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
     private Header[] requestHeaders = null;
     private Looper looper = null;
     private WeakReference<Object> TAG = new WeakReference<Object>(null);
+    private Executor parseExecutor = null;
+    private BufferPool bufferPool = null;
+    private boolean usePooledBody;
+    private long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    private File spillDirectory = null;
+    private long progressMinBytes = DEFAULT_PROGRESS_MIN_BYTES;
+    private int progressMinPercent = DEFAULT_PROGRESS_MIN_PERCENT;
+    private long progressMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PROGRESS_MIN_INTERVAL_MILLIS);
+    // last progress sent to the callback, and the latest one held back since
+    private long sentProgressBytes = -1;
+    private long sentProgressTotal;
+    private long sentProgressTime;
+    private long pendingProgressBytes = -1;
+    private long pendingProgressTotal;
 
     /**
      * Creates a new AsyncHttpResponseHandler
@@ -221,6 +253,135 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
         usePoolThread = pool;
     }
 
+    /**
+     * Returns executor on which the response body is deserialized by parsing handlers
+     *
+     * @return executor set by {@link #setParseExecutor(Executor)}, or shared {@link
+     * ParseExecutor#getDefault()} instance
+     */
+    public Executor getParseExecutor() {
+        return parseExecutor == null ? ParseExecutor.getDefault() : parseExecutor;
+    }
+
+    /**
+     * Sets executor on which the response body is deserialized by parsing handlers, such as {@link
+     * JsonHttpResponseHandler}. If not set, {@link AsyncHttpClient#getParseExecutor()} of the client
+     * sending the request is used.
+     *
+     * @param parseExecutor executor to run parsers on, null to use the default one
+     */
+    public void setParseExecutor(Executor parseExecutor) {
+        this.parseExecutor = parseExecutor;
+    }
+
+    boolean hasParseExecutor() {
+        return parseExecutor != null;
+    }
+
+    /**
+     * Returns pool providing buffers for reading response bodies
+     *
+     * @return pool set by {@link #setBufferPool(BufferPool)}, or shared {@link
+     * BufferPool#getDefault()} instance
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool == null ? BufferPool.getDefault() : bufferPool;
+    }
+
+    /**
+     * Sets pool providing buffers for reading response bodies
+     *
+     * @param bufferPool buffer pool, null to use the shared default one
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Returns whether response bodies are delivered as pooled {@link ResponseBody}
+     *
+     * @return boolean
+     */
+    public boolean getUsePooledBody() {
+        return usePooledBody;
+    }
+
+    /**
+     * Sets whether response bodies are delivered to {@link #onSuccessBody(int, Header[],
+     * ResponseBody)} and {@link #onFailureBody(int, Header[], ResponseBody, Throwable)} as pooled
+     * {@link ResponseBody}, which the callbacks release, instead of being copied into a byte
+     * array. Default is false.
+     *
+     * @param usePooledBody whether to deliver pooled bodies
+     */
+    public void setUsePooledBody(boolean usePooledBody) {
+        this.usePooledBody = usePooledBody;
+    }
+
+    /**
+     * Returns size over which response bodies are moved from memory to a temporary file
+     *
+     * @return threshold in bytes
+     */
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Sets size over which response bodies are moved from memory to a temporary file in {@link
+     * #getSpillDirectory()}, so bodies of unknown or large size don't run out of memory while
+     * being read. Smaller bodies stay in memory. Applies only to bodies delivered as {@link
+     * ResponseBody}, see {@link #setUsePooledBody(boolean)}, byte arrays are always read in
+     * memory. Default is {@link #DEFAULT_SPILL_THRESHOLD}.
+     *
+     * @param spillThreshold threshold in bytes, {@link Long#MAX_VALUE} to always keep bodies in
+     *                       memory
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        Utils.asserts(spillThreshold >= 0, "spillThreshold must not be negative");
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Returns directory holding temporary files of spilled response bodies
+     *
+     * @return directory, null for the default temporary directory
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Sets directory holding temporary files of spilled response bodies, such as {@code
+     * Context.getCacheDir()}
+     *
+     * @param spillDirectory directory, null to use the default temporary directory
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets how often progress is passed to {@link #onProgress(long, long)}. Progress is sent once
+     * it advanced by the given number of bytes, or by the given percentage of the total size, or
+     * once the given interval passed since the last progress was sent, whichever comes first. The
+     * first progress of a transfer, progress reaching the total size, and the last progress
+     * before the response is delivered are always sent. Defaults are {@link
+     * #DEFAULT_PROGRESS_MIN_BYTES}, {@link #DEFAULT_PROGRESS_MIN_PERCENT} and {@link
+     * #DEFAULT_PROGRESS_MIN_INTERVAL_MILLIS}.
+     *
+     * @param minBytes          number of bytes, zero or less to not send progress by bytes
+     * @param minPercent        percentage of the total size, zero or less to not send progress by
+     *                          percentage
+     * @param minIntervalMillis interval in milliseconds, zero or less to not send progress by
+     *                          time. If all three are zero or less, every progress is sent.
+     */
+    public void setProgressThrottle(long minBytes, int minPercent, long minIntervalMillis) {
+        this.progressMinBytes = minBytes;
+        this.progressMinPercent = minPercent;
+        this.progressMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+    }
+
     public String getCharset() {
         return this.responseCharset == null ? DEFAULT_CHARSET : this.responseCharset;
     }
@@ -289,6 +450,62 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
      */
     public abstract void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error);
 
+    /**
+     * Fired instead of {@link #onSuccess(int, Header[], byte[])} when pooled bodies are enabled, see
+     * {@link #setUsePooledBody(boolean)}. Overriding implementations must call {@link
+     * ResponseBody#release()} once they are done with the body. Default implementation copies the
+     * body and passes it to {@link #onSuccess(int, Header[], byte[])}.
+     *
+     * @param statusCode the status code of the response
+     * @param headers    return headers, if any
+     * @param body       the body of the HTTP response from the server, null if there is none
+     */
+    public void onSuccessBody(int statusCode, Header[] headers, ResponseBody body) {
+        byte[] responseBody;
+        try {
+            responseBody = body == null ? null : body.toByteArray();
+        } catch (IOException e) {
+            body.release();
+            onFailure(statusCode, headers, null, e);
+            return;
+        }
+        try {
+            onSuccess(statusCode, headers, responseBody);
+        } finally {
+            if (body != null) {
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * Fired instead of {@link #onFailure(int, Header[], byte[], Throwable)} for responses with
+     * error status when pooled bodies are enabled, see {@link #setUsePooledBody(boolean)}.
+     * Overriding implementations must call {@link ResponseBody#release()} once they are done with
+     * the body. Default implementation copies the body and passes it to {@link #onFailure(int,
+     * Header[], byte[], Throwable)}.
+     *
+     * @param statusCode return HTTP status code
+     * @param headers    return headers, if any
+     * @param body       the response body, null if there is none
+     * @param error      the underlying cause of the failure
+     */
+    public void onFailureBody(int statusCode, Header[] headers, ResponseBody body, Throwable error) {
+        byte[] responseBody = null;
+        try {
+            responseBody = body == null ? null : body.toByteArray();
+        } catch (IOException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "Cannot read spilled response body", e);
+        }
+        try {
+            onFailure(statusCode, headers, responseBody, error);
+        } finally {
+            if (body != null) {
+                body.release();
+            }
+        }
+    }
+
     /**
      * Fired when a retry occurs, override to handle in your own code
      *
@@ -309,32 +526,99 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
 
     @Override
     final public void sendProgressMessage(long bytesWritten, long bytesTotal) {
-        sendMessage(obtainMessage(PROGRESS_MESSAGE, new Object[]{bytesWritten, bytesTotal}));
+        long now = System.nanoTime();
+        if (shouldSendProgress(bytesWritten, bytesTotal, now)) {
+            pendingProgressBytes = -1;
+            sentProgressBytes = bytesWritten;
+            sentProgressTotal = bytesTotal;
+            sentProgressTime = now;
+            sendMessage(obtainProgressMessage(bytesWritten, bytesTotal));
+        } else {
+            pendingProgressBytes = bytesWritten;
+            pendingProgressTotal = bytesTotal;
+        }
+    }
+
+    private boolean shouldSendProgress(long bytesWritten, long bytesTotal, long now) {
+        if (progressMinBytes <= 0 && progressMinPercent <= 0 && progressMinIntervalNanos <= 0) {
+            return true;
+        }
+        // new transfer, such as download following upload, or retry
+        if (sentProgressBytes < 0 || bytesTotal != sentProgressTotal || bytesWritten < sentProgressBytes) {
+            return true;
+        }
+        long advanced = bytesWritten - sentProgressBytes;
+        return bytesWritten == bytesTotal
+                || (progressMinBytes > 0 && advanced >= progressMinBytes)
+                || (progressMinPercent > 0 && bytesTotal > 1 && advanced * 100 >= bytesTotal * progressMinPercent)
+                || (progressMinIntervalNanos > 0 && advanced > 0 && now - sentProgressTime >= progressMinIntervalNanos);
+    }
+
+    /**
+     * Sends progress held back by {@link #sendProgressMessage(long, long)}, so the callback gets
+     * the final value before the response. Handlers posting the response by {@link
+     * #postRunnable(Runnable)} call it first.
+     */
+    void flushProgress() {
+        if (pendingProgressBytes >= 0) {
+            long bytesWritten = pendingProgressBytes;
+            pendingProgressBytes = -1;
+            sentProgressBytes = bytesWritten;
+            sentProgressTotal = pendingProgressTotal;
+            sentProgressTime = System.nanoTime();
+            sendMessage(obtainProgressMessage(bytesWritten, pendingProgressTotal));
+        }
+    }
+
+    private void resetProgress() {
+        sentProgressBytes = -1;
+        pendingProgressBytes = -1;
     }
 
     @Override
     final public void sendSuccessMessage(int statusCode, Header[] headers, byte[] responseBytes) {
-        sendMessage(obtainMessage(SUCCESS_MESSAGE, new Object[]{statusCode, headers, responseBytes}));
+        flushProgress();
+        sendMessage(obtainResponseMessage(SUCCESS_MESSAGE, statusCode, headers, responseBytes, null));
     }
 
     @Override
     final public void sendFailureMessage(int statusCode, Header[] headers, byte[] responseBody, Throwable throwable) {
-        sendMessage(obtainMessage(FAILURE_MESSAGE, new Object[]{statusCode, headers, responseBody, throwable}));
+        flushProgress();
+        sendMessage(obtainResponseMessage(FAILURE_MESSAGE, statusCode, headers, responseBody, throwable));
+    }
+
+    final public void sendSuccessBodyMessage(int statusCode, Header[] headers, ResponseBody body) {
+        flushProgress();
+        sendMessage(obtainResponseMessage(SUCCESS_BODY_MESSAGE, statusCode, headers, body, null));
+    }
+
+    final public void sendFailureBodyMessage(int statusCode, Header[] headers, ResponseBody body, Throwable throwable) {
+        flushProgress();
+        sendMessage(obtainResponseMessage(FAILURE_BODY_MESSAGE, statusCode, headers, body, throwable));
     }
 
     @Override
     final public void sendStartMessage() {
+        resetProgress();
         sendMessage(obtainMessage(START_MESSAGE, null));
     }
 
     @Override
     final public void sendFinishMessage() {
+        flushProgress();
         sendMessage(obtainMessage(FINISH_MESSAGE, null));
     }
 
     @Override
     final public void sendRetryMessage(int retryNo) {
-        sendMessage(obtainMessage(RETRY_MESSAGE, new Object[]{retryNo}));
+        resetProgress();
+        if (legacyMessages) {
+            sendMessage(obtainMessage(RETRY_MESSAGE, new Object[]{retryNo}));
+            return;
+        }
+        Message message = obtainMessage(RETRY_MESSAGE, null);
+        message.arg1 = retryNo;
+        sendMessage(message);
     }
 
     @Override
@@ -344,24 +628,43 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
 
     // Methods which emulate android's Handler and Message methods
     protected void handleMessage(Message message) {
-        Object[] response;
+        ResponseEvent event;
 
+        if (message.obj instanceof Object[] && handleArrayMessage(message.what, (Object[]) message.obj)) {
+            return;
+        }
         try {
             switch (message.what) {
                 case SUCCESS_MESSAGE:
-                    response = (Object[]) message.obj;
-                    if (response != null && response.length >= 3) {
-                        onSuccess((Integer) response[0], (Header[]) response[1], (byte[]) response[2]);
-                    } else {
-                        AsyncHttpClient.log.e(LOG_TAG, "SUCCESS_MESSAGE didn't got enough params");
+                    event = (ResponseEvent) message.obj;
+                    try {
+                        onSuccess(message.arg1, event.headers, (byte[]) event.body);
+                    } finally {
+                        event.recycle();
                     }
                     break;
                 case FAILURE_MESSAGE:
-                    response = (Object[]) message.obj;
-                    if (response != null && response.length >= 4) {
-                        onFailure((Integer) response[0], (Header[]) response[1], (byte[]) response[2], (Throwable) response[3]);
-                    } else {
-                        AsyncHttpClient.log.e(LOG_TAG, "FAILURE_MESSAGE didn't got enough params");
+                    event = (ResponseEvent) message.obj;
+                    try {
+                        onFailure(message.arg1, event.headers, (byte[]) event.body, event.error);
+                    } finally {
+                        event.recycle();
+                    }
+                    break;
+                case SUCCESS_BODY_MESSAGE:
+                    event = (ResponseEvent) message.obj;
+                    try {
+                        onSuccessBody(message.arg1, event.headers, (ResponseBody) event.body);
+                    } finally {
+                        event.recycle();
+                    }
+                    break;
+                case FAILURE_BODY_MESSAGE:
+                    event = (ResponseEvent) message.obj;
+                    try {
+                        onFailureBody(message.arg1, event.headers, (ResponseBody) event.body, event.error);
+                    } finally {
+                        event.recycle();
                     }
                     break;
                 case START_MESSAGE:
@@ -371,8 +674,54 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
                     onFinish();
                     break;
                 case PROGRESS_MESSAGE:
-                    response = (Object[]) message.obj;
-                    if (response != null && response.length >= 2) {
+                    try {
+                        if (message.obj == null) {
+                            onProgress(message.arg1, message.arg2);
+                        } else {
+                            long[] progress = (long[]) message.obj;
+                            onProgress(progress[0], progress[1]);
+                        }
+                    } catch (Throwable t) {
+                        AsyncHttpClient.log.e(LOG_TAG, "custom onProgress contains an error", t);
+                    }
+                    break;
+                case RETRY_MESSAGE:
+                    onRetry(message.arg1);
+                    break;
+                case CANCEL_MESSAGE:
+                    onCancel();
+                    break;
+            }
+        } catch (Throwable error) {
+            onUserException(error);
+        }
+    }
+
+    /**
+     * Handles message whose payload is Object[] in the layout used before response events were
+     * pooled, so subclasses which obtain such messages themselves keep working
+     *
+     * @return false if the message does not take Object[] params
+     */
+    private boolean handleArrayMessage(int what, Object[] response) {
+        try {
+            switch (what) {
+                case SUCCESS_MESSAGE:
+                    if (response.length >= 3) {
+                        onSuccess((Integer) response[0], (Header[]) response[1], (byte[]) response[2]);
+                    } else {
+                        AsyncHttpClient.log.e(LOG_TAG, "SUCCESS_MESSAGE didn't got enough params");
+                    }
+                    break;
+                case FAILURE_MESSAGE:
+                    if (response.length >= 4) {
+                        onFailure((Integer) response[0], (Header[]) response[1], (byte[]) response[2], (Throwable) response[3]);
+                    } else {
+                        AsyncHttpClient.log.e(LOG_TAG, "FAILURE_MESSAGE didn't got enough params");
+                    }
+                    break;
+                case PROGRESS_MESSAGE:
+                    if (response.length >= 2) {
                         try {
                             onProgress((Long) response[0], (Long) response[1]);
                         } catch (Throwable t) {
@@ -383,25 +732,26 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
                     }
                     break;
                 case RETRY_MESSAGE:
-                    response = (Object[]) message.obj;
-                    if (response != null && response.length == 1) {
+                    if (response.length == 1) {
                         onRetry((Integer) response[0]);
                     } else {
                         AsyncHttpClient.log.e(LOG_TAG, "RETRY_MESSAGE didn't get enough params");
                     }
                     break;
-                case CANCEL_MESSAGE:
-                    onCancel();
-                    break;
+                default:
+                    return false;
             }
         } catch (Throwable error) {
             onUserException(error);
         }
+        return true;
     }
 
     protected void sendMessage(Message msg) {
         if (getUseSynchronousMode() || handler == null) {
             handleMessage(msg);
+            // messages dispatched by a looper are recycled by it, give this one back to the pool too
+            msg.recycle();
         } else if (!Thread.currentThread().isInterrupted()) { // do not send messages if request has been cancelled
             Utils.asserts(handler != null, "handler should not be null!");
             handler.sendMessage(msg);
@@ -425,6 +775,21 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
         }
     }
 
+    /**
+     * Helper method to run deserialization of the response off the looper thread. In synchronous
+     * mode, or when callbacks are fired on pool thread, the parser is run on current thread.
+     *
+     * @param parser runnable parsing the response and posting the result, must not be null
+     */
+    protected void runParser(Runnable parser) {
+        if (!getUseSynchronousMode() && !getUsePoolThread()) {
+            getParseExecutor().execute(parser);
+        } else {
+            // In synchronous mode everything should be run on one thread
+            parser.run();
+        }
+    }
+
     /**
      * Helper method to create Message instance from handler
      *
@@ -436,11 +801,80 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
         return Message.obtain(handler, responseMessageId, responseMessageData);
     }
 
+    /**
+     * Creates progress message carrying the values in its int arguments, so that sending progress
+     * allocates nothing, unless the values don't fit in int
+     */
+    private Message obtainProgressMessage(long bytesWritten, long bytesTotal) {
+        if (legacyMessages) {
+            return obtainMessage(PROGRESS_MESSAGE, new Object[]{bytesWritten, bytesTotal});
+        }
+        if (bytesWritten > Integer.MAX_VALUE || bytesTotal > Integer.MAX_VALUE
+                || bytesWritten < Integer.MIN_VALUE || bytesTotal < Integer.MIN_VALUE) {
+            return obtainMessage(PROGRESS_MESSAGE, new long[]{bytesWritten, bytesTotal});
+        }
+        Message message = obtainMessage(PROGRESS_MESSAGE, null);
+        message.arg1 = (int) bytesWritten;
+        message.arg2 = (int) bytesTotal;
+        return message;
+    }
+
+    private Message obtainResponseMessage(int what, int statusCode, Header[] headers, Object body, Throwable error) {
+        if (legacyMessages && what == SUCCESS_MESSAGE) {
+            return obtainMessage(what, new Object[]{statusCode, headers, body});
+        }
+        if (legacyMessages && what == FAILURE_MESSAGE) {
+            return obtainMessage(what, new Object[]{statusCode, headers, body, error});
+        }
+        Message message = obtainMessage(what, ResponseEvent.obtain(headers, body, error));
+        message.arg1 = statusCode;
+        return message;
+    }
+
+    /**
+     * Checks whether the handler class, or any of its superclasses outside of this library,
+     * overrides {@link #handleMessage(Message)}, such handler may read Object[] payloads
+     */
+    private static boolean usesLegacyMessages(Class<?> type) {
+        Boolean legacy = legacyMessageClasses.get(type);
+        if (legacy == null) {
+            legacy = false;
+            String libraryPackage = getPackageName(AsyncHttpResponseHandler.class);
+            for (Class<?> c = type; c != null && c != AsyncHttpResponseHandler.class; c = c.getSuperclass()) {
+                if (!libraryPackage.equals(getPackageName(c)) && declaresHandleMessage(c)) {
+                    legacy = true;
+                    break;
+                }
+            }
+            legacyMessageClasses.put(type, legacy);
+        }
+        return legacy;
+    }
+
+    private static String getPackageName(Class<?> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    private static boolean declaresHandleMessage(Class<?> type) {
+        try {
+            type.getDeclaredMethod("handleMessage", Message.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     @Override
     public void sendResponseMessage(HttpResponse response) throws IOException {
         // do not process if request has been cancelled
         if (!Thread.currentThread().isInterrupted()) {
             StatusLine status = response.getStatusLine();
+            if (getUsePooledBody()) {
+                sendResponseBody(status, response);
+                return;
+            }
             byte[] responseBody;
             responseBody = getResponseData(response.getEntity());
             // additional cancellation check as getResponseData() can take non-zero time to process
@@ -454,6 +888,20 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
         }
     }
 
+    private void sendResponseBody(StatusLine status, HttpResponse response) throws IOException {
+        ResponseBody body = readResponseBody(response.getEntity());
+        // additional cancellation check as readResponseBody() can take non-zero time to process
+        if (Thread.currentThread().isInterrupted()) {
+            if (body != null) {
+                body.release();
+            }
+        } else if (status.getStatusCode() >= 300) {
+            sendFailureBodyMessage(status.getStatusCode(), response.getAllHeaders(), body, new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+        } else {
+            sendSuccessBodyMessage(status.getStatusCode(), response.getAllHeaders(), body);
+        }
+    }
+
     /**
      * Returns byte array of response HttpEntity contents
      *
@@ -462,39 +910,120 @@ public abstract class AsyncHttpResponseHandler implements ResponseHandlerInterfa
      * @throws java.io.IOException if reading entity or creating byte array failed
      */
     byte[] getResponseData(HttpEntity entity) throws IOException {
-        byte[] responseBody = null;
-        if (entity != null) {
-            InputStream instream = entity.getContent();
-            if (instream != null) {
-                long contentLength = entity.getContentLength();
-                if (contentLength > Integer.MAX_VALUE) {
-                    throw new IllegalArgumentException("HTTP entity too large to be buffered in memory");
+        ResponseBody body = readResponseBody(entity);
+        if (body == null) {
+            return null;
+        }
+        try {
+            return body.toByteArray();
+        } catch (OutOfMemoryError e) {
+            throw new IOException("Response body of " + body.length() + " bytes too large to fit into available memory");
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Creates empty body to read the response into, configured with the buffer pool and spill
+     * settings of this handler. Bodies copied into a byte array are never spilled, as they would
+     * be read back into memory right away.
+     *
+     * @return new ResponseBody
+     */
+    ResponseBody newResponseBody() {
+        long threshold = getUsePooledBody() ? getSpillThreshold() : Long.MAX_VALUE;
+        return new ResponseBody(getBufferPool(), threshold, getSpillDirectory());
+    }
+
+    /**
+     * Reads response HttpEntity contents into chunks borrowed from {@link #getBufferPool()}, so
+     * the body doesn't have to be copied while it grows. Pooled bodies over {@link
+     * #getSpillThreshold()} are moved to a temporary file.
+     *
+     * @param entity can be null
+     * @return response entity body or null, must be released by the caller
+     * @throws java.io.IOException if reading entity failed
+     */
+    ResponseBody readResponseBody(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+        InputStream instream = entity.getContent();
+        if (instream == null) {
+            return null;
+        }
+        long contentLength = entity.getContentLength();
+        if (contentLength > Integer.MAX_VALUE && !getUsePooledBody()) {
+            AsyncHttpClient.silentCloseInputStream(instream);
+            throw new IllegalArgumentException("HTTP entity too large to be buffered in memory");
+        }
+        ResponseBody body = newResponseBody();
+        boolean complete = false;
+        try {
+            long count = 0;
+            int l;
+            // do not send messages if request has been cancelled
+            while ((l = body.readFrom(instream)) != -1 && !Thread.currentThread().isInterrupted()) {
+                count += l;
+                sendProgressMessage(count, (contentLength <= 0 ? 1 : contentLength));
+            }
+            complete = true;
+        } finally {
+            AsyncHttpClient.silentCloseInputStream(instream);
+            AsyncHttpClient.endEntityViaReflection(entity);
+            if (!complete) {
+                body.release();
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Arguments of response messages, recycled once the callback returns, so that delivering a
+     * response does not allocate
+     */
+    private static final class ResponseEvent {
+        private static final int MAX_POOL_SIZE = 16;
+        private static final Object poolLock = new Object();
+        private static ResponseEvent pool;
+        private static int poolSize;
+
+        private ResponseEvent next;
+        Header[] headers;
+        Object body;
+        Throwable error;
+
+        static ResponseEvent obtain(Header[] headers, Object body, Throwable error) {
+            ResponseEvent event = null;
+            synchronized (poolLock) {
+                if (pool != null) {
+                    event = pool;
+                    pool = event.next;
+                    event.next = null;
+                    poolSize--;
                 }
-                int buffersize = (contentLength <= 0) ? BUFFER_SIZE : (int) contentLength;
-                try {
-                    ByteArrayBuffer buffer = new ByteArrayBuffer(buffersize);
-                    try {
-                        byte[] tmp = new byte[BUFFER_SIZE];
-                        long count = 0;
-                        int l;
-                        // do not send messages if request has been cancelled
-                        while ((l = instream.read(tmp)) != -1 && !Thread.currentThread().isInterrupted()) {
-                            count += l;
-                            buffer.append(tmp, 0, l);
-                            sendProgressMessage(count, (contentLength <= 0 ? 1 : contentLength));
-                        }
-                    } finally {
-                        AsyncHttpClient.silentCloseInputStream(instream);
-                        AsyncHttpClient.endEntityViaReflection(entity);
-                    }
-                    responseBody = buffer.toByteArray();
-                } catch (OutOfMemoryError e) {
-                    System.gc();
-                    throw new IOException("File too large to fit into available memory");
+            }
+            if (event == null) {
+                event = new ResponseEvent();
+            }
+            event.headers = headers;
+            event.body = body;
+            event.error = error;
+            return event;
+        }
+
+        void recycle() {
+            headers = null;
+            body = null;
+            error = null;
+            synchronized (poolLock) {
+                if (poolSize < MAX_POOL_SIZE) {
+                    next = pool;
+                    pool = this;
+                    poolSize++;
                 }
             }
         }
-        return responseBody;
     }
 
     /**
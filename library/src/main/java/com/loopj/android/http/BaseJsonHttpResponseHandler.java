@@ -95,12 +95,7 @@ public abstract class BaseJsonHttpResponseHandler<JSON_TYPE> extends TextHttpRes
                     }
                 }
             };
-            if (!getUseSynchronousMode() && !getUsePoolThread()) {
-                new Thread(parser).start();
-            } else {
-                // In synchronous mode everything should be run on one thread
-                parser.run();
-            }
+            runParser(parser);
         } else {
             onSuccess(statusCode, headers, null, null);
         }
@@ -131,12 +126,7 @@ public abstract class BaseJsonHttpResponseHandler<JSON_TYPE> extends TextHttpRes
                     }
                 }
             };
-            if (!getUseSynchronousMode() && !getUsePoolThread()) {
-                new Thread(parser).start();
-            } else {
-                // In synchronous mode everything should be run on one thread
-                parser.run();
-            }
+            runParser(parser);
         } else {
             onFailure(statusCode, headers, throwable, null, null);
         }
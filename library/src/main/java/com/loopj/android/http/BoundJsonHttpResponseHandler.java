@@ -0,0 +1,182 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackReader;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpStatus;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
+
+/**
+ * {@link BaseJsonHttpResponseHandler} binding the response onto a plain Java object with {@link
+ * JsonBinder}, so no custom parser has to be written. Error responses are bound to the same type,
+ * if they don't match it, the error response is null. <p>&nbsp;</p> With {@link
+ * #setUseStreamingParser(boolean)} the object is bound directly from the response stream while it
+ * downloads, the raw JSON passed to callbacks is then null. <p>&nbsp;</p> The whole handler
+ * requires API 11, with or without streaming. On older versions binding throws {@link
+ * UnsupportedOperationException}, so successful responses are passed to {@link #onFailure(int,
+ * Header[], Throwable, String, Object)} with that exception and error responses are not bound.
+ * <p>&nbsp;</p>
+ * <pre>
+ * client.get("https://example.com/user", new BoundJsonHttpResponseHandler&lt;User&gt;(User.class) {
+ *     &#064;Override
+ *     public void onSuccess(int statusCode, Header[] headers, String rawJsonResponse, User user) {
+ *         ...
+ *     }
+ *     ...
+ * });
+ * </pre>
+ *
+ * @param <JSON_TYPE> type the response is bound to
+ */
+public abstract class BoundJsonHttpResponseHandler<JSON_TYPE> extends BaseJsonHttpResponseHandler<JSON_TYPE> {
+    private static final String LOG_TAG = "BoundJsonHttpRH";
+
+    private final Class<JSON_TYPE> type;
+    private JsonBinder binder;
+    private boolean useStreamingParser;
+
+    /**
+     * Creates a new BoundJsonHttpResponseHandler with default charset "UTF-8"
+     *
+     * @param type type the response is bound to
+     */
+    public BoundJsonHttpResponseHandler(Class<JSON_TYPE> type) {
+        this(type, DEFAULT_CHARSET);
+    }
+
+    /**
+     * Creates a new BoundJsonHttpResponseHandler with given string encoding
+     *
+     * @param type     type the response is bound to
+     * @param encoding result string encoding
+     */
+    public BoundJsonHttpResponseHandler(Class<JSON_TYPE> type, String encoding) {
+        super(encoding);
+        this.type = Utils.notNull(type, "type");
+    }
+
+    /**
+     * Returns binder binding the responses
+     *
+     * @return binder set by {@link #setBinder(JsonBinder)}, or shared {@link
+     * JsonBinder#getDefault()} instance
+     */
+    public JsonBinder getBinder() {
+        return binder == null ? JsonBinder.getDefault() : binder;
+    }
+
+    /**
+     * Sets binder binding the responses
+     *
+     * @param binder binder, null to use the shared default one
+     */
+    public void setBinder(JsonBinder binder) {
+        this.binder = binder;
+    }
+
+    public boolean isUseStreamingParser() {
+        return useStreamingParser;
+    }
+
+    /**
+     * Sets whether the response is bound directly from the response stream while it downloads,
+     * on the thread running the request, instead of being decoded into a String first. Default
+     * is false.
+     *
+     * @param useStreamingParser whether to bind the response stream
+     */
+    public void setUseStreamingParser(boolean useStreamingParser) {
+        this.useStreamingParser = useStreamingParser;
+    }
+
+    @Override
+    protected JSON_TYPE parseResponse(String rawJsonData, boolean isFailure) throws Throwable {
+        if (!JsonStreamParser.isSupported()) {
+            throw new UnsupportedOperationException("BoundJsonHttpResponseHandler requires API 11, android.util.JsonReader is not available");
+        }
+        if (rawJsonData == null) {
+            return null;
+        }
+        return getBinder().fromJson(rawJsonData, type);
+    }
+
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        StatusLine status = response.getStatusLine();
+        // below API 11 the response is failed by parseResponse()
+        if (!useStreamingParser || !JsonStreamParser.isSupported()
+                || entity == null || status.getStatusCode() == HttpStatus.SC_NO_CONTENT) {
+            super.sendResponseMessage(response);
+            return;
+        }
+        // do not process if request has been cancelled
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        InputStream instream = entity.getContent();
+        if (instream == null) {
+            super.sendResponseMessage(response);
+            return;
+        }
+        final int statusCode = status.getStatusCode();
+        final Header[] headers = response.getAllHeaders();
+        JSON_TYPE result = null;
+        Throwable parseError = null;
+        try {
+            PushbackReader reader = JsonStreamParser.openReader(new ProgressInputStream(instream, this, entity.getContentLength()), getCharset());
+            if (JsonStreamParser.peekFirst(reader) != -1) {
+                result = getBinder().fromJson(reader, type);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            AsyncHttpClient.log.d(LOG_TAG, "binding of the response failed", t);
+            parseError = t;
+        } finally {
+            AsyncHttpClient.silentCloseInputStream(instream);
+            AsyncHttpClient.endEntityViaReflection(entity);
+        }
+        // additional cancellation check as parsing can take non-zero time to process
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        flushProgress();
+        final JSON_TYPE jsonResponse = result;
+        final Throwable throwable = statusCode >= 300
+                ? new HttpResponseException(statusCode, status.getReasonPhrase()) : parseError;
+        postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (throwable == null) {
+                    onSuccess(statusCode, headers, null, jsonResponse);
+                } else {
+                    onFailure(statusCode, headers, throwable, null, jsonResponse);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,147 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays in power of two size classes, from {@link #MIN_BUFFER_SIZE} to {@link
+ * #MAX_BUFFER_SIZE}, used for scratch buffers and bodies of responses, so reading responses
+ * doesn't produce garbage. <p>&nbsp;</p> Arrays are always at least as large as requested and
+ * must not be used after they were released. Total size of idle arrays is limited, arrays over the
+ * limit or larger than the largest class are left to the garbage collector.
+ */
+public class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 1024 * 1024;
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE / MIN_BUFFER_SIZE) + 1;
+    private static BufferPool defaultPool;
+
+    private final ConcurrentLinkedQueue<?>[] freeBuffers = new ConcurrentLinkedQueue<?>[SIZE_CLASSES];
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates pool holding at most given amount of idle bytes
+     *
+     * @param maxPooledBytes limit of total size of idle arrays
+     */
+    public BufferPool(long maxPooledBytes) {
+        Utils.asserts(maxPooledBytes >= 0, "maxPooledBytes must not be negative");
+        this.maxPooledBytes = maxPooledBytes;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue<byte[]>();
+        }
+    }
+
+    /**
+     * Returns pool shared by all response handlers which were not given their own pool
+     *
+     * @return shared pool, holding at most {@link #DEFAULT_MAX_POOLED_BYTES}
+     */
+    public static synchronized BufferPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new BufferPool(DEFAULT_MAX_POOLED_BYTES);
+        }
+        return defaultPool;
+    }
+
+    private static int getSizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentLinkedQueue<byte[]> getFreeBuffers(int sizeClass) {
+        return (ConcurrentLinkedQueue<byte[]>) freeBuffers[sizeClass];
+    }
+
+    /**
+     * Returns array of at least given size, pooled one if available
+     *
+     * @param minSize minimum size of the array
+     * @return array, which should be given back by {@link #release(byte[])}
+     */
+    public byte[] acquire(int minSize) {
+        if (minSize > MAX_BUFFER_SIZE) {
+            missCount.incrementAndGet();
+            return new byte[minSize];
+        }
+        int sizeClass = getSizeClass(minSize);
+        byte[] buffer = getFreeBuffers(sizeClass).poll();
+        if (buffer == null) {
+            missCount.incrementAndGet();
+            return new byte[MIN_BUFFER_SIZE << sizeClass];
+        }
+        pooledBytes.addAndGet(-buffer.length);
+        hitCount.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives array back to the pool, the caller must not use it afterwards
+     *
+     * @param buffer array obtained from {@link #acquire(int)}, may be null
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_BUFFER_SIZE || buffer.length > MAX_BUFFER_SIZE
+                || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+        if (pooledBytes.addAndGet(buffer.length) > maxPooledBytes) {
+            pooledBytes.addAndGet(-buffer.length);
+            return;
+        }
+        getFreeBuffers(getSizeClass(buffer.length)).offer(buffer);
+    }
+
+    /**
+     * Returns total size of idle arrays held by the pool
+     *
+     * @return number of bytes
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Returns how many times an array was served from the pool
+     *
+     * @return number of acquisitions without allocation
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns how many times an array had to be allocated
+     *
+     * @return number of acquisitions with allocation
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,300 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.os.SystemClock;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host circuit breaker with retry budget, shared by all requests of {@link AsyncHttpClient}
+ * it was set to by {@link AsyncHttpClient#setCircuitBreaker(CircuitBreaker)}, clients have no
+ * breaker by default. <p>&nbsp;</p> Circuit of a host opens once the configured number of
+ * executions against it fail in a row, either by an IOException or by a 5xx response. While the
+ * circuit is open, requests to the host fail fast with {@link CircuitOpenException} without
+ * touching the network. After the open period the circuit is half-open and lets a single trial
+ * request through, its outcome either closes the circuit or opens it again. <p>&nbsp;</p> Retries
+ * are additionally limited by a token bucket per host, every new request deposits a fraction of a
+ * token and every retry takes one, so retries stay a fraction of the traffic even when each
+ * single request is allowed to retry several times. <p>&nbsp;</p> State of a host is dropped once
+ * its circuit is closed without failures and its retry budget is full, so it is kept only for
+ * hosts which recently failed or retried.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30 * 1000;
+    public static final double DEFAULT_RETRY_RATIO = 0.1;
+    public static final int DEFAULT_MAX_RETRY_TOKENS = 10;
+    private static final String LOG_TAG = "CircuitBreaker";
+
+    private final int failureThreshold;
+    private final long openDurationMillis;
+    private final double retryRatio;
+    private final int maxRetryTokens;
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<String, HostState>();
+    private final AtomicLong tripCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong deniedRetryCount = new AtomicLong();
+
+    /**
+     * Creates circuit breaker with default thresholds, see DEFAULT_* constants
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS, DEFAULT_RETRY_RATIO, DEFAULT_MAX_RETRY_TOKENS);
+    }
+
+    /**
+     * Creates circuit breaker
+     *
+     * @param failureThreshold   number of consecutive failures which open the circuit
+     * @param openDurationMillis time in milliseconds for which open circuit rejects requests
+     * @param retryRatio         retry tokens deposited by every new request, e.g. 0.1 allows
+     *                           retries of up to 10% of requests
+     * @param maxRetryTokens     capacity of the retry token bucket, which is also its initial
+     *                           fill, limits bursts of retries
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMillis, double retryRatio, int maxRetryTokens) {
+        Utils.asserts(failureThreshold > 0, "failureThreshold must be positive");
+        Utils.asserts(openDurationMillis >= 0, "openDurationMillis must not be negative");
+        Utils.asserts(retryRatio >= 0, "retryRatio must not be negative");
+        Utils.asserts(maxRetryTokens >= 0, "maxRetryTokens must not be negative");
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.retryRatio = retryRatio;
+        this.maxRetryTokens = maxRetryTokens;
+    }
+
+    private HostState getHostState(String hostname) {
+        String key = hostname.toLowerCase(Locale.US);
+        HostState state = hosts.get(key);
+        if (state == null) {
+            HostState created = new HostState(maxRetryTokens);
+            state = hosts.putIfAbsent(key, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Checks whether execution against given host is allowed
+     *
+     * @param hostname host of the request
+     * @param isRetry  whether the execution is a retry, only new requests deposit retry tokens
+     * @return false if the circuit of the host is open and the request should fail fast
+     */
+    boolean allowRequest(String hostname, boolean isRetry) {
+        while (true) {
+            HostState host = getHostState(hostname);
+            synchronized (host) {
+                if (host.evicted) {
+                    continue;
+                }
+                return allowRequest(host, isRetry);
+            }
+        }
+    }
+
+    private boolean allowRequest(HostState host, boolean isRetry) {
+        long now = SystemClock.elapsedRealtime();
+        if (host.state == State.OPEN && now - host.openedAt >= openDurationMillis) {
+            host.state = State.HALF_OPEN;
+            host.trialStartedAt = 0;
+        }
+        if (host.state == State.HALF_OPEN) {
+            // single trial at a time, lost trials (e.g. cancelled ones) expire after the open period
+            if (host.trialStartedAt != 0 && now - host.trialStartedAt < openDurationMillis) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            host.trialStartedAt = now;
+        } else if (host.state == State.OPEN) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        if (!isRetry) {
+            host.retryTokens = Math.min(maxRetryTokens, host.retryTokens + retryRatio);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a token from retry budget of given host
+     *
+     * @param hostname host of the request
+     * @return false if the budget is exhausted and the request must not be retried
+     */
+    boolean tryAcquireRetry(String hostname) {
+        while (true) {
+            HostState host = getHostState(hostname);
+            synchronized (host) {
+                if (host.evicted) {
+                    continue;
+                }
+                if (host.retryTokens >= 1) {
+                    host.retryTokens -= 1;
+                    return true;
+                }
+            }
+            deniedRetryCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Records successful execution against given host, closes its circuit
+     *
+     * @param hostname host of the request
+     */
+    void onSuccess(String hostname) {
+        while (true) {
+            HostState host = getHostState(hostname);
+            synchronized (host) {
+                if (host.evicted) {
+                    continue;
+                }
+                host.failures = 0;
+                if (host.state != State.CLOSED) {
+                    AsyncHttpClient.log.d(LOG_TAG, "Circuit closed for " + hostname);
+                    host.state = State.CLOSED;
+                }
+                // new state would be the same, the host does not need to be remembered
+                if (host.retryTokens >= maxRetryTokens) {
+                    host.evicted = true;
+                    hosts.remove(hostname.toLowerCase(Locale.US), host);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records failed execution against given host, opens its circuit once failure threshold is
+     * reached, or right away if the failed execution was the trial of half-open circuit
+     *
+     * @param hostname host of the request
+     */
+    void onFailure(String hostname) {
+        while (true) {
+            HostState host = getHostState(hostname);
+            synchronized (host) {
+                if (host.evicted) {
+                    continue;
+                }
+                host.failures++;
+                if (host.state == State.HALF_OPEN || (host.state == State.CLOSED && host.failures >= failureThreshold)) {
+                    AsyncHttpClient.log.w(LOG_TAG, "Circuit opened for " + hostname + " after " + host.failures + " failures");
+                    host.state = State.OPEN;
+                    host.openedAt = SystemClock.elapsedRealtime();
+                    tripCount.incrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns current state of circuit of given host
+     *
+     * @param hostname host name, case insensitive
+     * @return state of the circuit, CLOSED for hosts without recent failures
+     */
+    public State getState(String hostname) {
+        HostState host = hosts.get(Utils.notNull(hostname, "hostname").toLowerCase(Locale.US));
+        if (host == null) {
+            return State.CLOSED;
+        }
+        synchronized (host) {
+            if (host.state == State.OPEN && SystemClock.elapsedRealtime() - host.openedAt >= openDurationMillis) {
+                return State.HALF_OPEN;
+            }
+            return host.state;
+        }
+    }
+
+    /**
+     * Closes circuits of all hosts and refills their retry budgets, counters are kept
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    /**
+     * Returns how many times any circuit opened
+     *
+     * @return number of trips
+     */
+    public long getTripCount() {
+        return tripCount.get();
+    }
+
+    /**
+     * Returns how many executions failed fast because of open circuit
+     *
+     * @return number of rejected executions
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns how many retries were denied because of exhausted retry budget
+     *
+     * @return number of denied retries
+     */
+    public long getDeniedRetryCount() {
+        return deniedRetryCount.get();
+    }
+
+    /**
+     * State of circuit of a single host
+     */
+    public enum State {
+        /**
+         * Requests are executed, consecutive failures are counted
+         */
+        CLOSED,
+        /**
+         * Requests fail fast, until the open period elapses
+         */
+        OPEN,
+        /**
+         * Single trial request is executed to decide whether the host recovered
+         */
+        HALF_OPEN
+    }
+
+    private static class HostState {
+        State state = State.CLOSED;
+        int failures;
+        long openedAt;
+        long trialStartedAt;
+        double retryTokens;
+        // removed from the map, must not be updated anymore
+        boolean evicted;
+
+        HostState(int retryTokens) {
+            this.retryTokens = retryTokens;
+        }
+    }
+}
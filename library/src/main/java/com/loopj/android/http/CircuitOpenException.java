@@ -0,0 +1,44 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+
+/**
+ * Failure of request which was not executed, because circuit of its host is open, see {@link
+ * CircuitBreaker}
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = -5312871602343893547L;
+    private final String hostname;
+
+    public CircuitOpenException(String hostname) {
+        super("Circuit is open for host " + hostname);
+        this.hostname = hostname;
+    }
+
+    /**
+     * Returns host whose circuit is open
+     *
+     * @return host name
+     */
+    public String getHostname() {
+        return hostname;
+    }
+}
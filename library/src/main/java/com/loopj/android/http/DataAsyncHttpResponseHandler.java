@@ -24,7 +24,6 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import cz.msebera.android.httpclient.HttpEntity;
-import cz.msebera.android.httpclient.util.ByteArrayBuffer;
 
 @SuppressWarnings("ALL")
 public abstract class DataAsyncHttpResponseHandler extends AsyncHttpResponseHandler {
@@ -103,49 +102,46 @@ public abstract class DataAsyncHttpResponseHandler extends AsyncHttpResponseHand
         }
     }
 
-    /**
-     * Returns byte array of response HttpEntity contents
-     *
-     * @param entity can be null
-     * @return response entity body or null
-     * @throws java.io.IOException if reading entity or creating byte array failed
-     */
     @Override
-    byte[] getResponseData(HttpEntity entity) throws IOException {
-
-        byte[] responseBody = null;
-        if (entity != null) {
-            InputStream instream = entity.getContent();
-            if (instream != null) {
-                long contentLength = entity.getContentLength();
-                if (contentLength > Integer.MAX_VALUE) {
-                    throw new IllegalArgumentException("HTTP entity too large to be buffered in memory");
-                }
-                if (contentLength < 0) {
-                    contentLength = BUFFER_SIZE;
-                }
-                try {
-                    ByteArrayBuffer buffer = new ByteArrayBuffer((int) contentLength);
-                    try {
-                        byte[] tmp = new byte[BUFFER_SIZE];
-                        int l, count = 0;
-                        // do not send messages if request has been cancelled
-                        while ((l = instream.read(tmp)) != -1 && !Thread.currentThread().isInterrupted()) {
-                            buffer.append(tmp, 0, l);
-                            sendProgressDataMessage(copyOfRange(tmp, 0, l));
-                            sendProgressMessage(count, contentLength);
-                        }
-                    } finally {
-                        AsyncHttpClient.silentCloseInputStream(instream);
-                    }
-                    responseBody = buffer.toByteArray();
-                } catch (OutOfMemoryError e) {
-                    System.gc();
-                    throw new IOException("File too large to fit into available memory");
-                }
+    ResponseBody readResponseBody(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+        InputStream instream = entity.getContent();
+        if (instream == null) {
+            return null;
+        }
+        long contentLength = entity.getContentLength();
+        if (contentLength > Integer.MAX_VALUE && !getUsePooledBody()) {
+            AsyncHttpClient.silentCloseInputStream(instream);
+            throw new IllegalArgumentException("HTTP entity too large to be buffered in memory");
+        }
+        if (contentLength < 0) {
+            contentLength = BUFFER_SIZE;
+        }
+        BufferPool pool = getBufferPool();
+        ResponseBody body = newResponseBody();
+        byte[] tmp = pool.acquire(BUFFER_SIZE);
+        boolean complete = false;
+        try {
+            int l;
+            long count = 0;
+            // do not send messages if request has been cancelled
+            while ((l = instream.read(tmp)) != -1 && !Thread.currentThread().isInterrupted()) {
+                count += l;
+                body.append(tmp, 0, l);
+                sendProgressDataMessage(copyOfRange(tmp, 0, l));
+                sendProgressMessage(count, contentLength);
+            }
+            complete = true;
+        } finally {
+            pool.release(tmp);
+            AsyncHttpClient.silentCloseInputStream(instream);
+            if (!complete) {
+                body.release();
             }
         }
-        return responseBody;
+        return body;
     }
 }
 
@@ -0,0 +1,67 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+
+/**
+ * Failure of download whose digest does not match the expected value, either set on {@link
+ * FileAsyncHttpResponseHandler#setExpectedDigest(String, String)} or sent by the server in {@code
+ * Content-MD5} or {@code Digest} header
+ */
+public class DigestMismatchException extends IOException {
+    private static final long serialVersionUID = 2918377140255471983L;
+    private final String algorithm;
+    private final String expected;
+    private final String actual;
+
+    public DigestMismatchException(String algorithm, String expected, String actual, String source) {
+        super(algorithm + " digest " + actual + " does not match " + expected + " of " + source);
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.actual = actual;
+    }
+
+    /**
+     * Returns algorithm of the digest which does not match
+     *
+     * @return algorithm name, e.g. SHA-256
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns expected digest
+     *
+     * @return lower case hexadecimal digest
+     */
+    public String getExpected() {
+        return expected;
+    }
+
+    /**
+     * Returns digest of the downloaded file
+     *
+     * @return lower case hexadecimal digest
+     */
+    public String getActual() {
+        return actual;
+    }
+}
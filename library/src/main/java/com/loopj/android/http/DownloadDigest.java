@@ -0,0 +1,246 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpResponse;
+
+/**
+ * Digests of a downloaded file computed from the bytes as they are read, used by {@link
+ * FileAsyncHttpResponseHandler}. Supports {@link #MD5}, {@link #SHA_1}, {@link #SHA_256} and
+ * {@link #CRC32}, results are lower case hexadecimal strings.
+ */
+final class DownloadDigest {
+
+    static final String MD5 = "MD5";
+    static final String SHA_1 = "SHA-1";
+    static final String SHA_256 = "SHA-256";
+    static final String CRC32 = "CRC32";
+    private static final String LOG_TAG = "DownloadDigest";
+    private static final String HEADER_CONTENT_MD5 = "Content-MD5";
+    private static final String HEADER_DIGEST = "Digest";
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<String, MessageDigest>();
+    private final CRC32 crc;
+    private final List<String[]> expected = new ArrayList<String[]>();
+
+    /**
+     * Creates digests of the algorithms
+     *
+     * @param algorithms names returned by {@link #getAlgorithmName(String)}
+     */
+    DownloadDigest(Collection<String> algorithms) {
+        CRC32 _crc = null;
+        for (String algorithm : algorithms) {
+            if (CRC32.equals(algorithm)) {
+                _crc = new CRC32();
+            } else {
+                digests.put(algorithm, newMessageDigest(algorithm));
+            }
+        }
+        this.crc = _crc;
+    }
+
+    /**
+     * Returns canonical name of supported algorithm
+     *
+     * @param algorithm algorithm name, case insensitive, dash may be omitted
+     * @return canonical name
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    static String getAlgorithmName(String algorithm) {
+        Utils.asserts(algorithm != null, "algorithm must not be null");
+        String name = algorithm.toUpperCase(Locale.US);
+        if ("SHA1".equals(name)) {
+            name = SHA_1;
+        } else if ("SHA256".equals(name)) {
+            name = SHA_256;
+        }
+        Utils.asserts(MD5.equals(name) || SHA_1.equals(name) || SHA_256.equals(name) || CRC32.equals(name),
+                "Unsupported digest algorithm " + algorithm);
+        return name;
+    }
+
+    private static MessageDigest newMessageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm " + algorithm + " is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static String getDigestHeaderAlgorithm(String name) {
+        // RFC 3230 names
+        if ("md5".equalsIgnoreCase(name)) {
+            return MD5;
+        }
+        if ("sha".equalsIgnoreCase(name)) {
+            return SHA_1;
+        }
+        if ("sha-256".equalsIgnoreCase(name)) {
+            return SHA_256;
+        }
+        return null;
+    }
+
+    private boolean isComputed(String algorithm) {
+        return CRC32.equals(algorithm) ? crc != null : digests.containsKey(algorithm);
+    }
+
+    /**
+     * Adds expected digest, the file fails verification if its digest is different
+     *
+     * @param algorithm canonical algorithm name, ignored if it is not computed
+     * @param value     hexadecimal digest, case insensitive
+     * @param source    source of the value for error message
+     */
+    void expect(String algorithm, String value, String source) {
+        if (isComputed(algorithm)) {
+            expected.add(new String[]{algorithm, value.trim().toLowerCase(Locale.US), source});
+        }
+    }
+
+    /**
+     * Adds digests sent by the server for the computed algorithms as expected. Digests of
+     * content-coded response are ignored, they cover the encoded body, while the digests are
+     * computed from the body decoded by {@link AsyncHttpClient}.
+     *
+     * @param response     response with the file
+     * @param completeBody whether the response body is the whole file, {@code Content-MD5} of
+     *                     partial response covers only the part
+     */
+    void expectFromHeaders(HttpResponse response, boolean completeBody) {
+        Header contentEncoding = response.getFirstHeader(AsyncHttpClient.HEADER_CONTENT_ENCODING);
+        if (contentEncoding != null && !ENCODING_IDENTITY.equalsIgnoreCase(contentEncoding.getValue().trim())) {
+            AsyncHttpClient.log.d(LOG_TAG, "Digest headers of " + contentEncoding.getValue() + " encoded response are not verified");
+            return;
+        }
+        Header contentMd5 = response.getFirstHeader(HEADER_CONTENT_MD5);
+        if (completeBody && contentMd5 != null) {
+            expectBase64(MD5, contentMd5.getValue(), HEADER_CONTENT_MD5);
+        }
+        for (Header header : response.getHeaders(HEADER_DIGEST)) {
+            for (String instance : header.getValue().split(",")) {
+                int separator = instance.indexOf('=');
+                String algorithm = separator < 0 ? null : getDigestHeaderAlgorithm(instance.substring(0, separator).trim());
+                if (algorithm != null) {
+                    expectBase64(algorithm, instance.substring(separator + 1), HEADER_DIGEST);
+                }
+            }
+        }
+    }
+
+    private void expectBase64(String algorithm, String value, String source) {
+        try {
+            expect(algorithm, toHex(Base64.decode(value.trim(), Base64.NO_WRAP)), source);
+        } catch (IllegalArgumentException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "Malformed " + algorithm + " digest in " + source + " header", e);
+        }
+    }
+
+    /**
+     * Updates digests with read bytes
+     *
+     * @param data   buffer
+     * @param offset offset of the bytes in the buffer
+     * @param length number of bytes
+     */
+    void update(byte[] data, int offset, int length) {
+        for (MessageDigest digest : digests.values()) {
+            digest.update(data, offset, length);
+        }
+        if (crc != null) {
+            crc.update(data, offset, length);
+        }
+    }
+
+    /**
+     * Updates digests with beginning of the file downloaded before
+     *
+     * @param channel channel of the file
+     * @param length  number of bytes from the beginning of the file
+     * @param pool    pool providing the read buffer
+     * @throws IOException if the file cannot be read
+     */
+    void update(FileChannel channel, long length, BufferPool pool) throws IOException {
+        byte[] buffer = pool.acquire(BufferPool.MAX_BUFFER_SIZE);
+        try {
+            long position = 0;
+            while (position < length) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, length - position));
+                int count = channel.read(bytes, position);
+                if (count <= 0) {
+                    throw new IOException("File is shorter than " + length + " bytes");
+                }
+                update(buffer, 0, count);
+                position += count;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Completes the digests and compares them with expected values
+     *
+     * @return digests by algorithm name
+     * @throws DigestMismatchException if a digest does not match
+     */
+    Map<String, String> finish() throws DigestMismatchException {
+        Map<String, String> results = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            results.put(entry.getKey(), toHex(entry.getValue().digest()));
+        }
+        if (crc != null) {
+            results.put(CRC32, String.format(Locale.US, "%08x", crc.getValue()));
+        }
+        for (String[] value : expected) {
+            String actual = results.get(value[0]);
+            if (!value[1].equals(actual)) {
+                throw new DigestMismatchException(value[0], value[1], actual, value[2]);
+            }
+        }
+        return Collections.unmodifiableMap(results);
+    }
+}
@@ -0,0 +1,414 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpResponse;
+
+/**
+ * Sidecar journal of a resumable download, stored next to the downloaded file. It records
+ * validator of the remote file ({@code ETag} or {@code Last-Modified}), its length and byte
+ * ranges being downloaded, each with CRC32 checksums of its completed chunks. <p>&nbsp;</p>
+ * Download resumes from the last chunk whose checksum matches the file on disk, so data which
+ * never reached the disk before a crash is downloaded again. Journal is saved at most once per
+ * {@link #SAVE_INTERVAL_MILLIS} while downloading, by writing a new file and renaming it.
+ * Journal without file only tracks the ranges in memory.
+ */
+final class DownloadJournal {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    static final long SAVE_INTERVAL_MILLIS = 1000;
+    private static final String LOG_TAG = "DownloadJournal";
+    private static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x414A4E31;
+    private static final String WEAK_ETAG_PREFIX = "W/";
+
+    private final File file;
+    private final String etag;
+    private final String lastModified;
+    private final long length;
+    private final List<Range> ranges = new ArrayList<Range>();
+    private long lastSaveTime;
+
+    /**
+     * Creates journal of new download
+     *
+     * @param file         journal file, null to never save the journal
+     * @param etag         strong entity tag of the remote file, may be null
+     * @param lastModified last modification date of the remote file, may be null
+     * @param length       length of the remote file, -1 if unknown
+     */
+    DownloadJournal(File file, String etag, String lastModified, long length) {
+        this.file = file;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.length = length;
+    }
+
+    /**
+     * Returns journal file of the downloaded file
+     *
+     * @param target downloaded file
+     * @return sidecar journal file
+     */
+    static File getJournalFile(File target) {
+        return new File(target.getPath() + SUFFIX);
+    }
+
+    /**
+     * Creates journal for the response, if it has a validator which can be used for {@code
+     * If-Range}
+     *
+     * @param file     journal file
+     * @param response response with the remote file
+     * @param length   length of the remote file, -1 if unknown
+     * @return journal without ranges, null if the response has no usable validator
+     */
+    static DownloadJournal create(File file, HttpResponse response, long length) {
+        Header etag = response.getFirstHeader("ETag");
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        String etagValue = etag == null || etag.getValue().startsWith(WEAK_ETAG_PREFIX) ? null : etag.getValue();
+        String lastModifiedValue = lastModified == null ? null : lastModified.getValue();
+        if (etagValue == null && lastModifiedValue == null) {
+            return null;
+        }
+        return new DownloadJournal(file, etagValue, lastModifiedValue, length);
+    }
+
+    /**
+     * Reads journal from the file
+     *
+     * @param file journal file
+     * @return journal, null if the file does not exist or cannot be read
+     */
+    static DownloadJournal load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a download journal");
+            }
+            String etag = input.readBoolean() ? input.readUTF() : null;
+            String lastModified = input.readBoolean() ? input.readUTF() : null;
+            DownloadJournal journal = new DownloadJournal(file, etag, lastModified, input.readLong());
+            int rangeCount = input.readInt();
+            for (int i = 0; i < rangeCount; i++) {
+                Range range = journal.addRange(input.readLong(), input.readLong());
+                int chunkCount = input.readInt();
+                for (int j = 0; j < chunkCount; j++) {
+                    range.checksums.add(input.readLong());
+                }
+                range.written.set(Math.min((long) chunkCount * CHUNK_SIZE, range.end - range.start));
+            }
+            return journal;
+        } catch (IOException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "Cannot read download journal " + file, e);
+            return null;
+        } finally {
+            AsyncHttpClient.silentCloseInputStream(input);
+        }
+    }
+
+    /**
+     * Adds range to be downloaded
+     *
+     * @param start first byte of the range
+     * @param end   end of the range, exclusive, {@link Long#MAX_VALUE} if length is unknown
+     * @return added range
+     */
+    synchronized Range addRange(long start, long end) {
+        Range range = new Range(start, end);
+        ranges.add(range);
+        return range;
+    }
+
+    /**
+     * Adds ranges covering the whole file, each except the last one being a multiple of {@link
+     * #CHUNK_SIZE} long
+     *
+     * @param count maximum number of ranges
+     */
+    void split(int count) {
+        long chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long rangeLength = (chunks + count - 1) / count * CHUNK_SIZE;
+        for (long start = 0; start < length; start += rangeLength) {
+            addRange(start, Math.min(start + rangeLength, length));
+        }
+    }
+
+    synchronized List<Range> getRanges() {
+        return Collections.unmodifiableList(new ArrayList<Range>(ranges));
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns value of {@code If-Range} header for requests resuming the download
+     *
+     * @return entity tag, last modification date if the entity tag is unknown
+     */
+    String getIfRange() {
+        return etag != null ? etag : lastModified;
+    }
+
+    /**
+     * Returns whether the response has the same validator as the journal
+     *
+     * @param response response of a resume request
+     * @return false if the remote file changed
+     */
+    boolean matches(HttpResponse response) {
+        if (etag != null) {
+            Header header = response.getFirstHeader("ETag");
+            return header == null || etag.equals(header.getValue());
+        }
+        Header header = response.getFirstHeader("Last-Modified");
+        return header == null || lastModified.equals(header.getValue());
+    }
+
+    /**
+     * Returns first range which is not downloaded completely
+     *
+     * @return incomplete range, null if all ranges are complete
+     */
+    synchronized Range getFirstIncompleteRange() {
+        for (Range range : ranges) {
+            if (range.getPosition() < range.end) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares checksums of the chunks with the downloaded file and moves positions of ranges
+     * back to the first chunk which does not match
+     *
+     * @param target downloaded file
+     * @param pool   pool providing the read buffer
+     * @throws IOException if the file cannot be read
+     */
+    void verify(File target, BufferPool pool) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(target, "r");
+        byte[] buffer = pool.acquire(BufferPool.MAX_BUFFER_SIZE);
+        try {
+            FileChannel channel = input.getChannel();
+            CRC32 crc = new CRC32();
+            for (Range range : getRanges()) {
+                int chunk = 0;
+                for (; chunk < range.checksums.size(); chunk++) {
+                    long position = range.start + (long) chunk * CHUNK_SIZE;
+                    long remaining = Math.min(CHUNK_SIZE, range.end - position);
+                    crc.reset();
+                    while (remaining > 0) {
+                        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        int count = channel.read(bytes, position);
+                        if (count <= 0) {
+                            break;
+                        }
+                        crc.update(buffer, 0, count);
+                        position += count;
+                        remaining -= count;
+                    }
+                    if (remaining > 0 || crc.getValue() != range.checksums.get(chunk)) {
+                        break;
+                    }
+                }
+                if (chunk < range.checksums.size()) {
+                    AsyncHttpClient.log.w(LOG_TAG, "Chunk " + chunk + " of range from " + range.start + " does not match, resuming from it");
+                    range.truncate(chunk);
+                }
+            }
+        } finally {
+            pool.release(buffer);
+            input.close();
+        }
+    }
+
+    /**
+     * Saves the journal if it was not saved for {@link #SAVE_INTERVAL_MILLIS}
+     */
+    void checkpoint() {
+        if (file == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            if (now - lastSaveTime < SAVE_INTERVAL_MILLIS) {
+                return;
+            }
+            lastSaveTime = now;
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "Cannot save download journal " + file, e);
+        }
+    }
+
+    /**
+     * Writes the journal to a new file, which replaces the journal file
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeBoolean(etag != null);
+            if (etag != null) {
+                output.writeUTF(etag);
+            }
+            output.writeBoolean(lastModified != null);
+            if (lastModified != null) {
+                output.writeUTF(lastModified);
+            }
+            output.writeLong(length);
+            output.writeInt(ranges.size());
+            for (Range range : ranges) {
+                output.writeLong(range.start);
+                output.writeLong(range.end);
+                output.writeInt(range.checksums.size());
+                for (Long checksum : range.checksums) {
+                    output.writeLong(checksum);
+                }
+            }
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot replace download journal " + file);
+        }
+    }
+
+    /**
+     * Deletes the journal file, once the download completed or it cannot be resumed
+     */
+    void delete() {
+        if (file != null) {
+            deleteFile(file);
+        }
+    }
+
+    /**
+     * Deletes journal file of the downloaded file
+     *
+     * @param journalFile journal file
+     */
+    static void deleteFile(File journalFile) {
+        if (journalFile.exists() && !journalFile.delete()) {
+            AsyncHttpClient.log.w(LOG_TAG, "Cannot delete download journal " + journalFile);
+        }
+    }
+
+    /**
+     * Byte range of the download, computes checksums of its chunks as they are written
+     */
+    final class Range implements FileBlockWriter.Listener {
+        final long start;
+        final long end;
+        final AtomicLong written = new AtomicLong();
+        private final List<Long> checksums = new ArrayList<Long>();
+        private final CRC32 crc = new CRC32();
+        private int chunkFilled;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns position to continue downloading the range from
+         *
+         * @return position in the file
+         */
+        long getPosition() {
+            return start + written.get();
+        }
+
+        private void truncate(int chunkCount) {
+            synchronized (DownloadJournal.this) {
+                while (checksums.size() > chunkCount) {
+                    checksums.remove(checksums.size() - 1);
+                }
+            }
+            written.set((long) chunkCount * CHUNK_SIZE);
+        }
+
+        @Override
+        public void onBlockWritten(byte[] data, int length) {
+            int offset = 0;
+            boolean completed = false;
+            while (offset < length) {
+                int count = Math.min(length - offset, CHUNK_SIZE - chunkFilled);
+                crc.update(data, offset, count);
+                offset += count;
+                chunkFilled += count;
+                if (chunkFilled == CHUNK_SIZE) {
+                    completeChunk();
+                    completed = true;
+                }
+            }
+            // written counter was already increased by the writer
+            if (chunkFilled > 0 && getPosition() >= end) {
+                completeChunk();
+                completed = true;
+            }
+            if (completed) {
+                checkpoint();
+            }
+        }
+
+        private void completeChunk() {
+            synchronized (DownloadJournal.this) {
+                checksums.add(crc.getValue());
+            }
+            crc.reset();
+            chunkFilled = 0;
+        }
+    }
+}
@@ -21,12 +21,22 @@ package com.loopj.android.http;
 import android.content.Context;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpStatus;
 
 public abstract class FileAsyncHttpResponseHandler extends AsyncHttpResponseHandler {
 
@@ -35,6 +45,10 @@ public abstract class FileAsyncHttpResponseHandler extends AsyncHttpResponseHand
     protected final boolean append;
     protected final boolean renameIfExists;
     protected File frontendFile;
+    private final Set<String> digestAlgorithms = new CopyOnWriteArraySet<String>();
+    private final Map<String, String> expectedDigests = new ConcurrentHashMap<String, String>();
+    private volatile Map<String, String> digests = Collections.emptyMap();
+    private DownloadDigest responseDigest;
 
     /**
      * Obtains new FileAsyncHttpResponseHandler and stores response in passed file
@@ -200,7 +214,142 @@ public abstract class FileAsyncHttpResponseHandler extends AsyncHttpResponseHand
 
     @Override
     public final void onSuccess(int statusCode, Header[] headers, byte[] responseBytes) {
-        onSuccess(statusCode, headers, getTargetFile());
+        onSuccess(statusCode, headers, getTargetFile(), digests);
+    }
+
+    /**
+     * Sets digests computed from the response body while it is downloaded, so the file does not
+     * have to be read again to verify it. Supported algorithms are MD5, SHA-1, SHA-256 and CRC32.
+     * Digests sent by the server in {@code Content-MD5} or {@code Digest} header for any of the
+     * algorithms are verified, download fails with {@link DigestMismatchException} if they do not
+     * match.
+     *
+     * @param algorithms algorithm names, case insensitive, none to disable digests
+     */
+    public void setDigestAlgorithms(String... algorithms) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (String algorithm : algorithms) {
+            names.add(DownloadDigest.getAlgorithmName(algorithm));
+        }
+        names.addAll(expectedDigests.keySet());
+        digestAlgorithms.retainAll(names);
+        digestAlgorithms.addAll(names);
+    }
+
+    /**
+     * Sets expected digest of the response body, the algorithm is added to computed digests.
+     * Download fails with {@link DigestMismatchException} if the digest does not match.
+     *
+     * @param algorithm algorithm name, case insensitive
+     * @param value     hexadecimal digest, null to remove the expected digest
+     */
+    public void setExpectedDigest(String algorithm, String value) {
+        String name = DownloadDigest.getAlgorithmName(algorithm);
+        if (value == null) {
+            expectedDigests.remove(name);
+        } else {
+            expectedDigests.put(name, value);
+            digestAlgorithms.add(name);
+        }
+    }
+
+    /**
+     * Returns digests of the last downloaded response body
+     *
+     * @return hexadecimal digests by algorithm name, empty if no digest was computed
+     */
+    public Map<String, String> getDigests() {
+        return digests;
+    }
+
+    boolean hasDigests() {
+        return !digestAlgorithms.isEmpty();
+    }
+
+    /**
+     * Prepares digests of the response body, which are then updated by {@link
+     * #transferToFile(InputStream, FileChannel, long, long, AtomicLong, FileBlockWriter.Listener,
+     * long, boolean)} on the thread processing the request
+     *
+     * @param response response about to be downloaded
+     */
+    void startDigest(HttpResponse response) {
+        digests = Collections.emptyMap();
+        int statusCode = response.getStatusLine().getStatusCode();
+        boolean complete = statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+        if (digestAlgorithms.isEmpty() || (statusCode >= 300 && !complete)) {
+            responseDigest = null;
+            return;
+        }
+        responseDigest = new DownloadDigest(digestAlgorithms);
+        for (Map.Entry<String, String> entry : expectedDigests.entrySet()) {
+            responseDigest.expect(entry.getKey(), entry.getValue(), "expected value");
+        }
+        // headers of range not satisfiable response do not describe the file already on disk
+        if (!complete) {
+            responseDigest.expectFromHeaders(response, statusCode != HttpStatus.SC_PARTIAL_CONTENT);
+        }
+    }
+
+    /**
+     * Updates digests with the part of the file downloaded before this response
+     *
+     * @param channel channel of the target file
+     * @param length  number of bytes at the beginning of the file
+     * @throws IOException if the file cannot be read
+     */
+    void updateDigest(FileChannel channel, long length) throws IOException {
+        if (responseDigest != null && length > 0) {
+            responseDigest.update(channel, length, getBufferPool());
+        }
+    }
+
+    /**
+     * Completes digests of the response body, unless the request was cancelled
+     *
+     * @throws DigestMismatchException if a digest does not match its expected value
+     */
+    void finishDigest() throws DigestMismatchException {
+        DownloadDigest _responseDigest = responseDigest;
+        responseDigest = null;
+        if (_responseDigest != null && !Thread.currentThread().isInterrupted()) {
+            digests = _responseDigest.finish();
+        }
+    }
+
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        startDigest(response);
+        try {
+            super.sendResponseMessage(response);
+        } catch (DigestMismatchException e) {
+            if (!Thread.currentThread().isInterrupted())
+                sendFailureMessage(response.getStatusLine().getStatusCode(), response.getAllHeaders(), null, e);
+        }
+    }
+
+    /**
+     * Called when the response was stored in the file, with digests computed while downloading
+     * it, see {@link #setDigestAlgorithms(String...)}. Default implementation calls {@link
+     * #onSuccess(int, Header[], File)}.
+     *
+     * @param statusCode http response status line
+     * @param headers    response http headers if any
+     * @param file       file in which the response is stored
+     * @param digests    hexadecimal digests by algorithm name, empty if no digest was computed
+     */
+    public void onSuccess(int statusCode, Header[] headers, File file, Map<String, String> digests) {
+        onSuccess(statusCode, headers, file);
+    }
+
+    /**
+     * Pooled bodies are not supported, the body is written to the target file
+     *
+     * @return always false
+     */
+    @Override
+    public boolean getUsePooledBody() {
+        return false;
     }
 
     /**
@@ -217,25 +366,103 @@ public abstract class FileAsyncHttpResponseHandler extends AsyncHttpResponseHand
         if (entity != null) {
             InputStream instream = entity.getContent();
             long contentLength = entity.getContentLength();
-            FileOutputStream buffer = new FileOutputStream(getTargetFile(), this.append);
+            RandomAccessFile output = openTargetFile(this.append);
             if (instream != null) {
                 try {
-                    byte[] tmp = new byte[BUFFER_SIZE];
-                    int l, count = 0;
-                    // do not send messages if request has been cancelled
-                    while ((l = instream.read(tmp)) != -1 && !Thread.currentThread().isInterrupted()) {
-                        count += l;
-                        buffer.write(tmp, 0, l);
-                        sendProgressMessage(count, contentLength);
-                    }
+                    transferToFile(instream, output.getChannel(), output.length(), -1, new AtomicLong(), null, contentLength, true);
+                    finishDigest();
                 } finally {
                     AsyncHttpClient.silentCloseInputStream(instream);
-                    buffer.flush();
-                    AsyncHttpClient.silentCloseOutputStream(buffer);
+                    output.close();
                 }
+            } else {
+                output.close();
             }
         }
         return null;
     }
 
+    /**
+     * Opens target file for writing
+     *
+     * @param append whether to keep current content of the file
+     * @return file, positional writes past its end append to it
+     * @throws IOException if the file cannot be opened
+     */
+    RandomAccessFile openTargetFile(boolean append) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(getTargetFile(), "rw");
+        if (!append) {
+            output.setLength(0);
+        }
+        return output;
+    }
+
+    /**
+     * Copies the stream to the channel, reading from the network on current thread while blocks
+     * are written by {@link FileBlockWriter} on the disk writer thread
+     *
+     * @param instream       stream to read from
+     * @param channel        channel to write to
+     * @param position       position in the file to write the first byte at
+     * @param limit          maximum number of bytes to transfer, negative for no limit
+     * @param written        counter increased by bytes written to the file, also when the transfer
+     *                       fails, its value is sent as progress
+     * @param listener       listener of written blocks, may be null
+     * @param progressTotal  total size of the download sent as progress
+     * @param reportProgress whether progress should be sent, only the thread processing the
+     *                       request may send it
+     * @throws IOException if reading or writing failed
+     */
+    void transferToFile(InputStream instream, FileChannel channel, long position, long limit, AtomicLong written,
+                        FileBlockWriter.Listener listener, long progressTotal, boolean reportProgress) throws IOException {
+        FileBlockWriter writer = new FileBlockWriter(channel, position, getBufferPool(), FileBlockWriter.DEFAULT_BLOCK_COUNT, written, listener);
+        boolean complete = false;
+        long count = 0;
+        // digests are computed only for downloads processed on the request thread
+        DownloadDigest digest = reportProgress ? responseDigest : null;
+        byte[] block = null;
+        try {
+            boolean end = false;
+            // do not read further if request has been cancelled
+            while (!end && !Thread.currentThread().isInterrupted()) {
+                block = writer.acquireBlock();
+                int filled = 0;
+                while (filled < FileBlockWriter.BLOCK_SIZE && !Thread.currentThread().isInterrupted()) {
+                    int max = FileBlockWriter.BLOCK_SIZE - filled;
+                    if (limit >= 0 && limit - count < max) {
+                        max = (int) (limit - count);
+                    }
+                    int l = max == 0 ? -1 : instream.read(block, filled, max);
+                    if (l == -1) {
+                        end = true;
+                        break;
+                    }
+                    if (digest != null) {
+                        digest.update(block, filled, l);
+                    }
+                    filled += l;
+                    count += l;
+                    if (reportProgress) {
+                        sendProgressMessage(written.get(), progressTotal);
+                    }
+                }
+                writer.submit(block, filled);
+                block = null;
+            }
+            writer.finish();
+            complete = true;
+        } finally {
+            if (block != null) {
+                // reading or submitting failed, the block was not handed to the writer
+                writer.returnBlock(block);
+            }
+            if (!complete) {
+                writer.abort();
+            }
+        }
+        if (reportProgress) {
+            sendProgressMessage(written.get(), progressTotal);
+        }
+    }
+
 }
@@ -0,0 +1,275 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes blocks of a download to a file on a dedicated disk writer thread, so reading from the
+ * network never waits for slow storage. Blocks circulate in a bounded ring: the reading thread
+ * takes a free block, fills it and submits it, the writer thread writes it through {@link
+ * FileChannel} at its position and returns it to the free blocks. Reading waits only once all
+ * blocks wait for writing. <p>&nbsp;</p> Failure of the writer is thrown from the next call of
+ * the reading thread. Writer must be finished or aborted, the channel is not closed by it.
+ */
+final class FileBlockWriter implements Runnable {
+
+    static final int BLOCK_SIZE = BufferPool.MAX_BUFFER_SIZE;
+    static final int DEFAULT_BLOCK_COUNT = 4;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+    private static ThreadPoolExecutor writerExecutor;
+
+    private final FileChannel channel;
+    private final BufferPool pool;
+    private final AtomicLong written;
+    private final Listener listener;
+    private final BlockingQueue<byte[]> freeBlocks;
+    private final BlockingQueue<Block> filledBlocks;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private long position;
+    private volatile IOException error;
+    private volatile boolean aborted;
+
+    /**
+     * Creates writer and starts its writer thread
+     *
+     * @param channel    channel to write to
+     * @param position   position in the file where the first block is written
+     * @param pool       pool providing the blocks
+     * @param blockCount number of blocks in the ring, must be positive
+     * @param written    counter increased by the number of bytes of each written block
+     * @param listener   listener notified of each written block, may be null
+     */
+    FileBlockWriter(FileChannel channel, long position, BufferPool pool, int blockCount, AtomicLong written, Listener listener) {
+        Utils.asserts(blockCount > 0, "blockCount must be positive");
+        this.channel = Utils.notNull(channel, "channel");
+        this.position = position;
+        this.pool = Utils.notNull(pool, "pool");
+        this.written = Utils.notNull(written, "written");
+        this.listener = listener;
+        this.freeBlocks = new ArrayBlockingQueue<byte[]>(blockCount);
+        // one more slot for the end marker
+        this.filledBlocks = new ArrayBlockingQueue<Block>(blockCount + 1);
+        for (int i = 0; i < blockCount; i++) {
+            freeBlocks.add(pool.acquire(BLOCK_SIZE));
+        }
+        getWriterExecutor().execute(this);
+    }
+
+    private static synchronized ThreadPoolExecutor getWriterExecutor() {
+        if (writerExecutor == null) {
+            writerExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new WriterThreadFactory());
+        }
+        return writerExecutor;
+    }
+
+    /**
+     * Takes free block to be filled, waits while all blocks wait for writing
+     *
+     * @return block of {@link #BLOCK_SIZE} or more bytes
+     * @throws IOException if writing failed or the thread was interrupted
+     */
+    byte[] acquireBlock() throws IOException {
+        try {
+            byte[] block;
+            while ((block = freeBlocks.poll(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)) == null) {
+                checkError();
+            }
+            checkError();
+            return block;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for disk writer");
+        }
+    }
+
+    /**
+     * Passes filled block to the writer thread, it is written after previously submitted blocks
+     *
+     * @param block  block taken by {@link #acquireBlock()}
+     * @param length number of bytes to write, zero to just return the block
+     * @throws IOException if writing failed
+     */
+    void submit(byte[] block, int length) throws IOException {
+        checkError();
+        // never blocks, there are at most blockCount blocks
+        filledBlocks.add(new Block(block, length));
+    }
+
+    /**
+     * Gives back block, which was taken by {@link #acquireBlock()} but will not be submitted, such
+     * as when reading its data failed, so it is returned to the buffer pool with the others
+     *
+     * @param block block taken by {@link #acquireBlock()}
+     */
+    void returnBlock(byte[] block) {
+        // never blocks, the block was taken from this queue
+        freeBlocks.add(block);
+    }
+
+    /**
+     * Waits until all submitted blocks were written
+     *
+     * @throws IOException if writing failed or the thread was interrupted
+     */
+    void finish() throws IOException {
+        filledBlocks.add(Block.END);
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            aborted = true;
+            throw new InterruptedIOException("Interrupted while waiting for disk writer");
+        } finally {
+            releaseBlocks();
+        }
+        checkError();
+    }
+
+    /**
+     * Stops writing, blocks which were not written yet are dropped. Waits until the writer thread
+     * stopped, so the channel can be closed.
+     */
+    void abort() {
+        aborted = true;
+        filledBlocks.offer(Block.END);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                // the writer stops promptly, the channel must not be closed under it
+                interrupted = true;
+            }
+        }
+        releaseBlocks();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns position in the file after the last written block
+     *
+     * @return position
+     */
+    long getPosition() {
+        return position;
+    }
+
+    private void checkError() throws IOException {
+        IOException e = error;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void releaseBlocks() {
+        if (finished.getCount() == 0) {
+            byte[] block;
+            while ((block = freeBlocks.poll()) != null) {
+                pool.release(block);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Block block = filledBlocks.take();
+                if (block == Block.END) {
+                    break;
+                }
+                try {
+                    if (error == null && !aborted) {
+                        write(block);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    freeBlocks.add(block.data);
+                }
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("Disk writer was interrupted");
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void write(Block block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block.data, 0, block.length);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        written.addAndGet(block.length);
+        if (listener != null) {
+            listener.onBlockWritten(block.data, block.length);
+        }
+    }
+
+    /**
+     * Listener of blocks written to the file, called on the disk writer thread
+     */
+    interface Listener {
+        /**
+         * Called after the block was written right after the previous block
+         *
+         * @param data   block data
+         * @param length number of bytes written from the block
+         */
+        void onBlockWritten(byte[] data, int length);
+    }
+
+    private static final class Block {
+        static final Block END = new Block(null, 0);
+
+        final byte[] data;
+        final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "AsyncHttpClient disk writer #" + count.incrementAndGet());
+        }
+    }
+}
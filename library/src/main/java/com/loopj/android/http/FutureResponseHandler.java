@@ -0,0 +1,84 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import cz.msebera.android.httpclient.Header;
+
+/**
+ * Response handler which completes a {@link RequestFuture} instead of calling back, so requests
+ * can be composed and waited for from worker threads. Callbacks are fired on the pool thread,
+ * the handler therefore doesn't need a Looper. <p>&nbsp;</p> Successful response completes the
+ * future with {@link RequestResult}, failure fails it with {@link RequestFailedException},
+ * cancelling the request cancels the future and vice versa. <p>&nbsp;</p>
+ * <pre>
+ * FutureResponseHandler handler = new FutureResponseHandler();
+ * client.get("https://www.google.com", handler);
+ * RequestResult result = handler.getFuture().get(30, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class FutureResponseHandler extends AsyncHttpResponseHandler {
+
+    private volatile RequestHandle requestHandle;
+    private final RequestFuture<RequestResult> future = new RequestFuture<RequestResult>() {
+        @Override
+        protected void onCancelled(boolean mayInterruptIfRunning) {
+            RequestHandle _requestHandle = requestHandle;
+            if (_requestHandle != null) {
+                _requestHandle.cancel(mayInterruptIfRunning);
+            }
+        }
+    };
+
+    public FutureResponseHandler() {
+        super(true);
+    }
+
+    /**
+     * Returns future of the result of request sent with this handler, handler can be used for a
+     * single request only
+     *
+     * @return future of the request result
+     */
+    public RequestFuture<RequestResult> getFuture() {
+        return future;
+    }
+
+    void setRequestHandle(RequestHandle requestHandle) {
+        this.requestHandle = requestHandle;
+        requestHandle.setFuture(future);
+        if (future.isCancelled()) {
+            requestHandle.cancel(true);
+        }
+    }
+
+    @Override
+    public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+        future.complete(new RequestResult(statusCode, headers, responseBody));
+    }
+
+    @Override
+    public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+        future.fail(new RequestFailedException(new RequestResult(statusCode, headers, responseBody), error));
+    }
+
+    @Override
+    public void onCancel() {
+        future.cancel(false);
+    }
+}
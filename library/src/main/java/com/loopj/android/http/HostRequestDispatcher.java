@@ -0,0 +1,224 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import cz.msebera.android.httpclient.HttpHost;
+import cz.msebera.android.httpclient.conn.params.ConnManagerParams;
+import cz.msebera.android.httpclient.conn.routing.HttpRoute;
+import cz.msebera.android.httpclient.params.HttpParams;
+
+/**
+ * Admission layer in front of the thread pool, which holds requests in per-host queues and
+ * dispatches them to the thread pool only when the number of requests running against that host
+ * is under its limit. This way one slow host cannot occupy every worker thread waiting for a
+ * connection, and starve requests to other hosts. <p>&nbsp;</p> Unless overridden by {@link
+ * #setMaxRequestsPerHost(String, int)}, the limit for a host is the value of {@link
+ * cz.msebera.android.httpclient.conn.params.ConnPerRouteBean} set in client params.
+ */
+class HostRequestDispatcher {
+
+    private static final Comparator<Waiting> WAITING_ORDER = new Comparator<Waiting>() {
+        @Override
+        public int compare(Waiting lhs, Waiting rhs) {
+            int byPriority = lhs.priority.compareTo(rhs.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    private final HttpParams params;
+    private final Map<HttpHost, HostQueue> hosts = new HashMap<HttpHost, HostQueue>();
+    private final Map<String, Integer> hostLimits = new ConcurrentHashMap<String, Integer>();
+    private long sequence;
+
+    HostRequestDispatcher(HttpParams params) {
+        this.params = Utils.notNull(params, "params");
+    }
+
+    /**
+     * Sets limit of concurrently running requests for given host name, overriding limit given by
+     * connection manager params
+     *
+     * @param hostname host name, case insensitive
+     * @param limit    maximum of concurrently running requests, values lower than 1 remove the
+     *                 override
+     */
+    void setMaxRequestsPerHost(String hostname, int limit) {
+        String key = Utils.notNull(hostname, "hostname").toLowerCase(Locale.US);
+        if (limit < 1) {
+            hostLimits.remove(key);
+        } else {
+            hostLimits.put(key, limit);
+        }
+    }
+
+    /**
+     * Submits the request to executor, if the target host is under its limit, or queues it until
+     * one of the requests running against the host completes
+     *
+     * @param request  request to dispatch
+     * @param host     target host of the request, if null the request is submitted immediately
+     * @param executor executor to run the request on
+     */
+    void dispatch(AsyncHttpRequest request, HttpHost host, ExecutorService executor) {
+        if (host == null) {
+            request.submitTo(executor);
+            return;
+        }
+
+        boolean runNow;
+        synchronized (this) {
+            HostQueue queue = hosts.get(host);
+            if (queue == null) {
+                queue = new HostQueue(host);
+                hosts.put(host, queue);
+            }
+            if (queue.running < getLimit(host)) {
+                queue.running++;
+                runNow = true;
+            } else {
+                request.setDispatcher(this);
+                queue.waiting.add(new Waiting(request, executor, sequence++));
+                runNow = false;
+            }
+            request.addCompletionListener(queue);
+        }
+
+        if (runNow) {
+            request.submitTo(executor);
+        }
+    }
+
+    /**
+     * Moves waiting request according to its current {@link AsyncHttpRequest#getPriority()}, does
+     * nothing if the request is not waiting anymore
+     *
+     * @param request request which priority has changed
+     */
+    synchronized void reprioritize(AsyncHttpRequest request) {
+        for (HostQueue queue : hosts.values()) {
+            for (Waiting waiting : queue.waiting) {
+                if (waiting.request == request) {
+                    // queue order must not change while the entry is in it
+                    queue.waiting.remove(waiting);
+                    waiting.priority = request.getPriority();
+                    queue.waiting.add(waiting);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns number of requests waiting for given host to get under its limit
+     *
+     * @param hostname host name, case insensitive
+     * @return number of waiting requests
+     */
+    synchronized int getWaitingCount(String hostname) {
+        int count = 0;
+        for (HostQueue queue : hosts.values()) {
+            if (queue.host.getHostName().equalsIgnoreCase(hostname)) {
+                count += queue.waiting.size();
+            }
+        }
+        return count;
+    }
+
+    private int getLimit(HttpHost host) {
+        Integer limit = hostLimits.get(host.getHostName().toLowerCase(Locale.US));
+        if (limit != null) {
+            return limit;
+        }
+        return Math.max(1, ConnManagerParams.getMaxConnectionsPerRoute(params).getMaxForRoute(new HttpRoute(host)));
+    }
+
+    private void onRequestCompleted(HostQueue queue, AsyncHttpRequest request) {
+        List<Waiting> promoted = new ArrayList<Waiting>();
+        synchronized (this) {
+            boolean wasWaiting = false;
+            Iterator<Waiting> iterator = queue.waiting.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().request == request) {
+                    // cancelled before it got its turn
+                    iterator.remove();
+                    wasWaiting = true;
+                    break;
+                }
+            }
+            if (!wasWaiting) {
+                queue.running--;
+            }
+            int limit = getLimit(queue.host);
+            while (queue.running < limit && !queue.waiting.isEmpty()) {
+                queue.running++;
+                promoted.add(queue.waiting.poll());
+            }
+            if (queue.running <= 0 && queue.waiting.isEmpty()) {
+                hosts.remove(queue.host);
+            }
+        }
+
+        for (Waiting waiting : promoted) {
+            waiting.request.submitTo(waiting.executor);
+        }
+    }
+
+    private static class Waiting {
+        final AsyncHttpRequest request;
+        final ExecutorService executor;
+        final long sequence;
+        RequestPriority priority;
+
+        Waiting(AsyncHttpRequest request, ExecutorService executor, long sequence) {
+            this.request = request;
+            this.executor = executor;
+            this.sequence = sequence;
+            this.priority = request.getPriority();
+        }
+    }
+
+    private class HostQueue implements AsyncHttpRequest.CompletionListener {
+        final HttpHost host;
+        final PriorityQueue<Waiting> waiting = new PriorityQueue<Waiting>(11, WAITING_ORDER);
+        int running;
+
+        HostQueue(HttpHost host) {
+            this.host = host;
+        }
+
+        @Override
+        public void onRequestCompleted(AsyncHttpRequest request) {
+            HostRequestDispatcher.this.onRequestCompleted(this, request);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.os.Looper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
+import cz.msebera.android.httpclient.conn.ConnectionReleaseTrigger;
+
+/**
+ * Response handler for responses holding a large top-level JSON array, which parses the array
+ * from the response stream and passes its elements to {@link #onElements(List)} in batches as
+ * they are parsed, without ever building the whole array. Elements are of the same types as
+ * {@link JsonHttpResponseHandler} produces, mostly {@link org.json.JSONObject}. <p>&nbsp;</p>
+ * Batches are passed on the thread reading the response, so they can be stored right away, e.g.
+ * inserted into a database. Parsing can be stopped at any time by {@link #stopParsing()}, the
+ * rest of the response is then discarded. <p>&nbsp;</p> {@link #onSuccess(int, Header[],
+ * byte[])} is fired once the whole array was processed or parsing was stopped, the body passed to
+ * it is always null. {@link #onFailure(int, Header[], byte[], Throwable)} is fired with {@link
+ * JSONException} if the response is not a JSON array, with the exception thrown from {@link
+ * #onElements(List)}, or with the error body for responses with error status. If the request is
+ * retried after the body was partially read, elements are passed again from the beginning.
+ * <p>&nbsp;</p>
+ * <pre>
+ * client.get("https://example.com/records", new JsonArrayStreamHttpResponseHandler(500) {
+ *     &#064;Override
+ *     public void onElements(List&lt;Object&gt; elements) throws Exception {
+ *         database.insert(elements);
+ *     }
+ *     ...
+ * });
+ * </pre>
+ */
+public abstract class JsonArrayStreamHttpResponseHandler extends AsyncHttpResponseHandler {
+
+    private static final String LOG_TAG = "JsonArrayStreamRH";
+
+    private final int batchSize;
+    private volatile boolean stopped;
+    private Throwable elementsError;
+
+    /**
+     * Creates a new JsonArrayStreamHttpResponseHandler passing elements one at a time
+     */
+    public JsonArrayStreamHttpResponseHandler() {
+        this(1);
+    }
+
+    /**
+     * Creates a new JsonArrayStreamHttpResponseHandler
+     *
+     * @param batchSize maximum number of elements passed to {@link #onElements(List)} at once,
+     *                  must be positive
+     */
+    public JsonArrayStreamHttpResponseHandler(int batchSize) {
+        super();
+        Utils.asserts(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates a new JsonArrayStreamHttpResponseHandler with a user-supplied looper, see {@link
+     * AsyncHttpResponseHandler#AsyncHttpResponseHandler(Looper)}
+     *
+     * @param looper    The looper to work with
+     * @param batchSize maximum number of elements passed to {@link #onElements(List)} at once,
+     *                  must be positive
+     */
+    public JsonArrayStreamHttpResponseHandler(Looper looper, int batchSize) {
+        super(looper);
+        Utils.asserts(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Fired on the thread reading the response for every batch of parsed elements of the array,
+     * in order. The list is reused once the method returns, elements must be copied out of it if
+     * they are needed later. Throwing an exception stops parsing and fails the request with that
+     * exception.
+     *
+     * @param elements parsed elements, at most batch size of them
+     * @throws Exception if the elements cannot be processed
+     */
+    public abstract void onElements(List<Object> elements) throws Exception;
+
+    /**
+     * Stops parsing of the array after the current batch, the rest of the response is discarded
+     * and {@link #onSuccess(int, Header[], byte[])} is fired. Can be called from {@link
+     * #onElements(List)} or from any other thread.
+     */
+    public void stopParsing() {
+        stopped = true;
+    }
+
+    /**
+     * Returns whether parsing was stopped by {@link #stopParsing()}
+     *
+     * @return boolean
+     */
+    public boolean isParsingStopped() {
+        return stopped;
+    }
+
+    /**
+     * Pooled bodies are not supported, the array is streamed
+     *
+     * @return always false
+     */
+    @Override
+    public boolean getUsePooledBody() {
+        return false;
+    }
+
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        StatusLine status = response.getStatusLine();
+        HttpEntity entity = response.getEntity();
+        if (status.getStatusCode() >= 300 || entity == null) {
+            // error bodies are delivered as usual
+            super.sendResponseMessage(response);
+            return;
+        }
+        // do not process if request has been cancelled
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        stopped = false;
+        elementsError = null;
+        Header[] headers = response.getAllHeaders();
+        Throwable error = null;
+        if (JsonStreamParser.isSupported()) {
+            InputStream instream = entity.getContent();
+            try {
+                if (instream != null) {
+                    error = parseStream(new ProgressInputStream(instream, this, entity.getContentLength()));
+                }
+            } finally {
+                if (stopped && instream instanceof ConnectionReleaseTrigger) {
+                    // closing would read the rest of the response to reuse the connection
+                    ((ConnectionReleaseTrigger) instream).abortConnection();
+                }
+                AsyncHttpClient.silentCloseInputStream(instream);
+                AsyncHttpClient.endEntityViaReflection(entity);
+            }
+        } else {
+            error = parseBuffered(getResponseData(entity));
+        }
+        // additional cancellation check as parsing can take non-zero time to process
+        if (!Thread.currentThread().isInterrupted()) {
+            if (error != null) {
+                AsyncHttpClient.log.w(LOG_TAG, "Parsing of JSON array failed", error);
+                sendFailureMessage(status.getStatusCode(), headers, null, error);
+            } else {
+                sendSuccessMessage(status.getStatusCode(), headers, null);
+            }
+        }
+    }
+
+    /**
+     * @return exception failing the request, null on success
+     */
+    private Throwable parseStream(InputStream instream) throws IOException {
+        PushbackReader reader = JsonStreamParser.openReader(instream, getCharset());
+        if (JsonStreamParser.peekFirst(reader) != '[') {
+            return new JSONException("Response is not a JSON array");
+        }
+        final List<Object> batch = new ArrayList<Object>(batchSize);
+        try {
+            // JsonReader is used only through JsonStreamParser, which requires API 11
+            JsonStreamParser.readArray(reader, new JsonStreamParser.ElementHandler() {
+                @Override
+                public boolean onElement(Object element) {
+                    batch.add(element);
+                    return batch.size() < batchSize ? !stopped : deliver(batch);
+                }
+            });
+        } catch (JSONException e) {
+            return e;
+        }
+        return deliverRemaining(batch);
+    }
+
+    /**
+     * Fallback for devices without {@link android.util.JsonReader}, parses the whole array at once
+     *
+     * @return exception failing the request, null on success
+     */
+    private Throwable parseBuffered(byte[] responseBody) {
+        List<Object> batch = new ArrayList<Object>(batchSize);
+        try {
+            JSONArray array = new JSONArray(TextHttpResponseHandler.getResponseString(responseBody, getCharset()));
+            for (int i = 0; i < array.length() && !stopped; i++) {
+                batch.add(array.get(i));
+                if (batch.size() == batchSize && !deliver(batch)) {
+                    return elementsError;
+                }
+            }
+        } catch (JSONException e) {
+            return e;
+        } catch (RuntimeException e) {
+            // body is not a JSON array at all, e.g. it is empty
+            return JsonStreamParser.newJSONException(e);
+        }
+        return deliverRemaining(batch);
+    }
+
+    private Throwable deliverRemaining(List<Object> batch) {
+        if (!batch.isEmpty() && !stopped) {
+            deliver(batch);
+        }
+        return elementsError;
+    }
+
+    /**
+     * @return false if parsing should stop
+     */
+    private boolean deliver(List<Object> batch) {
+        if (Thread.currentThread().isInterrupted()) {
+            stopped = true;
+            return false;
+        }
+        try {
+            onElements(batch);
+        } catch (Throwable t) {
+            elementsError = t;
+            // the rest of the response is not needed
+            stopped = true;
+            return false;
+        }
+        batch.clear();
+        return !stopped;
+    }
+}
@@ -0,0 +1,424 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds JSON directly onto fields of plain Java objects while it is parsed by {@link JsonReader},
+ * without building intermediate {@link JSONObject}. Fields, their types and constructors
+ * of bound classes are looked up once and cached. <p>&nbsp;</p> Bound classes need a constructor
+ * without parameters, of any visibility. All their fields and fields of their superclasses are
+ * bound, except for static and transient ones. JSON key is the name of the field, unless it is
+ * annotated with {@link Name}, unknown keys are skipped. Supported field types are primitives and
+ * their wrappers, String, enums (by constant name), other bound classes, arrays, {@link List},
+ * {@link Collection} and {@link Map} with String keys, and Object, {@link JSONObject} or
+ * {@link JSONArray} holding the value as parsed by {@link JsonHttpResponseHandler}.
+ * <p>&nbsp;</p> Requires API 11, on older versions the constructor and {@link #getDefault()}
+ * throw {@link UnsupportedOperationException}. Instances are thread-safe.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class JsonBinder {
+
+    private static JsonBinder defaultBinder;
+
+    private final ConcurrentHashMap<Class<?>, ClassBinding> bindings = new ConcurrentHashMap<Class<?>, ClassBinding>();
+
+    /**
+     * Creates new binder with empty cache of class bindings
+     *
+     * @throws UnsupportedOperationException if running below API 11
+     */
+    public JsonBinder() {
+        if (!JsonStreamParser.isSupported()) {
+            throw new UnsupportedOperationException("JsonBinder requires API 11, android.util.JsonReader is not available");
+        }
+    }
+
+    /**
+     * Returns binder shared by all handlers which were not given their own binder
+     *
+     * @return shared instance
+     * @throws UnsupportedOperationException if running below API 11
+     */
+    public static synchronized JsonBinder getDefault() {
+        if (defaultBinder == null) {
+            defaultBinder = new JsonBinder();
+        }
+        return defaultBinder;
+    }
+
+    /**
+     * Binds JSON text onto a new instance of the type
+     *
+     * @param json JSON text
+     * @param type type of the result, such as a bound class or an array
+     * @param <T>  type of the result
+     * @return bound object, null for JSON null
+     * @throws JSONException if the JSON is malformed or does not match the type
+     */
+    public <T> T fromJson(String json, Class<T> type) throws JSONException {
+        try {
+            return fromJson(new StringReader(json), type);
+        } catch (IOException e) {
+            // StringReader fails only on malformed JSON
+            throw JsonStreamParser.newJSONException(e);
+        }
+    }
+
+    /**
+     * Binds JSON read from the reader onto a new instance of the type
+     *
+     * @param reader reader of JSON text
+     * @param type   type of the result, such as a bound class or an array
+     * @param <T>    type of the result
+     * @return bound object, null for JSON null
+     * @throws IOException   if reading failed
+     * @throws JSONException if the JSON is malformed or does not match the type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T fromJson(Reader reader, Class<T> type) throws IOException, JSONException {
+        JsonReader jsonReader = JsonStreamParser.newJsonReader(reader);
+        try {
+            return (T) read(jsonReader, type);
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw JsonStreamParser.newJSONException(e);
+        } catch (NumberFormatException e) {
+            throw JsonStreamParser.newJSONException(e);
+        } catch (IOException e) {
+            if (JsonStreamParser.isMalformed(e)) {
+                throw JsonStreamParser.newJSONException(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads next value of the reader as given type
+     *
+     * @param reader reader positioned before the value
+     * @param type   type of the value
+     * @return value, null for JSON null
+     * @throws IOException   if reading failed
+     * @throws JSONException if the value does not match the type
+     */
+    public Object read(JsonReader reader, Type type) throws IOException, JSONException {
+        Class<?> rawType = getRawType(type);
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return rawType == Object.class ? JSONObject.NULL : null;
+        }
+        if (rawType == String.class) {
+            return reader.nextString();
+        }
+        if (rawType == Integer.class || rawType == int.class) {
+            return reader.nextInt();
+        }
+        if (rawType == Long.class || rawType == long.class) {
+            return reader.nextLong();
+        }
+        if (rawType == Double.class || rawType == double.class) {
+            return reader.nextDouble();
+        }
+        if (rawType == Boolean.class || rawType == boolean.class) {
+            return reader.nextBoolean();
+        }
+        if (rawType == Float.class || rawType == float.class) {
+            return (float) reader.nextDouble();
+        }
+        if (rawType == Short.class || rawType == short.class) {
+            return (short) reader.nextInt();
+        }
+        if (rawType == Byte.class || rawType == byte.class) {
+            return (byte) reader.nextInt();
+        }
+        if (rawType == Character.class || rawType == char.class) {
+            String value = reader.nextString();
+            if (value.length() != 1) {
+                throw new JSONException("Expected single character but was \"" + value + "\"");
+            }
+            return value.charAt(0);
+        }
+        if (rawType.isEnum()) {
+            return readEnum(reader, rawType);
+        }
+        if (rawType == Object.class || rawType == JSONObject.class || rawType == JSONArray.class) {
+            Object value = JsonStreamParser.readValue(reader);
+            if (!rawType.isInstance(value)) {
+                throw new JSONException("Expected " + rawType.getSimpleName() + " but was " + value.getClass().getSimpleName());
+            }
+            return value;
+        }
+        if (rawType.isArray()) {
+            return readArray(reader, rawType.getComponentType(), getElementType(type, rawType));
+        }
+        if (Collection.class.isAssignableFrom(rawType)) {
+            return readCollection(reader, rawType, getTypeArgument(type, 0));
+        }
+        if (Map.class.isAssignableFrom(rawType)) {
+            return readMap(reader, rawType, getTypeArgument(type, 1));
+        }
+        return readObject(reader, getBinding(rawType));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readEnum(JsonReader reader, Class<?> rawType) throws IOException, JSONException {
+        String name = reader.nextString();
+        try {
+            return Enum.valueOf((Class<? extends Enum>) rawType, name);
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown constant " + name + " of " + rawType.getName());
+        }
+    }
+
+    private Object readArray(JsonReader reader, Class<?> componentType, Type elementType) throws IOException, JSONException {
+        List<Object> elements = new ArrayList<Object>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            elements.add(read(reader, elementType));
+        }
+        reader.endArray();
+        Object array = Array.newInstance(componentType, elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            Object element = elements.get(i);
+            if (element == null && componentType.isPrimitive()) {
+                throw new JSONException("Unexpected null element of " + componentType.getName() + " array");
+            }
+            Array.set(array, i, element);
+        }
+        return array;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readCollection(JsonReader reader, Class<?> rawType, Type elementType) throws IOException, JSONException {
+        Collection<Object> collection = rawType.isInterface() ? new ArrayList<Object>() : (Collection<Object>) newInstance(rawType);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            collection.add(read(reader, elementType));
+        }
+        reader.endArray();
+        return collection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readMap(JsonReader reader, Class<?> rawType, Type valueType) throws IOException, JSONException {
+        Map<String, Object> map = rawType.isInterface() ? new LinkedHashMap<String, Object>() : (Map<String, Object>) newInstance(rawType);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            map.put(reader.nextName(), read(reader, valueType));
+        }
+        reader.endObject();
+        return map;
+    }
+
+    private Object readObject(JsonReader reader, ClassBinding binding) throws IOException, JSONException {
+        Object instance = binding.newInstance();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            FieldBinding field = binding.fields.get(reader.nextName());
+            if (field == null) {
+                reader.skipValue();
+            } else {
+                field.read(this, reader, instance);
+            }
+        }
+        reader.endObject();
+        return instance;
+    }
+
+    private ClassBinding getBinding(Class<?> type) throws JSONException {
+        ClassBinding binding = bindings.get(type);
+        if (binding == null) {
+            binding = new ClassBinding(type);
+            ClassBinding existing = bindings.putIfAbsent(type, binding);
+            if (existing != null) {
+                binding = existing;
+            }
+        }
+        return binding;
+    }
+
+    private static Object newInstance(Class<?> type) throws JSONException {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw JsonStreamParser.newJSONException(e);
+        }
+    }
+
+    private static Class<?> getRawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return getRawType(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(getRawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return getRawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        // type variables are bound as parsed JSON values
+        return Object.class;
+    }
+
+    private static Type getElementType(Type type, Class<?> rawType) {
+        return type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : rawType.getComponentType();
+    }
+
+    private static Type getTypeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Sets JSON key of the annotated field, instead of its name
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface Name {
+        String value();
+    }
+
+    /**
+     * Cached constructor and fields of a bound class
+     */
+    private static final class ClassBinding {
+        final Map<String, FieldBinding> fields = new HashMap<String, FieldBinding>();
+        private final Constructor<?> constructor;
+
+        ClassBinding(Class<?> type) throws JSONException {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+                throw new JSONException("Cannot bind JSON to abstract " + type.getName());
+            }
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new JSONException(type.getName() + " has no constructor without parameters");
+            }
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    Name name = field.getAnnotation(Name.class);
+                    String key = name != null ? name.value() : field.getName();
+                    // fields of subclasses hide fields of superclasses
+                    if (!fields.containsKey(key)) {
+                        field.setAccessible(true);
+                        fields.put(key, new FieldBinding(field));
+                    }
+                }
+            }
+        }
+
+        Object newInstance() throws JSONException {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw JsonStreamParser.newJSONException(e);
+            }
+        }
+    }
+
+    /**
+     * Cached field of a bound class, primitive fields are set without boxing
+     */
+    private static final class FieldBinding {
+        private final Field field;
+        private final Type type;
+        private final Class<?> rawType;
+
+        FieldBinding(Field field) {
+            this.field = field;
+            this.type = field.getGenericType();
+            this.rawType = field.getType();
+        }
+
+        void read(JsonBinder binder, JsonReader reader, Object instance) throws IOException, JSONException {
+            try {
+                if (rawType.isPrimitive()) {
+                    if (reader.peek() == JsonToken.NULL) {
+                        // primitive fields keep their default value
+                        reader.nextNull();
+                    } else if (rawType == int.class) {
+                        field.setInt(instance, reader.nextInt());
+                    } else if (rawType == long.class) {
+                        field.setLong(instance, reader.nextLong());
+                    } else if (rawType == double.class) {
+                        field.setDouble(instance, reader.nextDouble());
+                    } else if (rawType == boolean.class) {
+                        field.setBoolean(instance, reader.nextBoolean());
+                    } else if (rawType == float.class) {
+                        field.setFloat(instance, (float) reader.nextDouble());
+                    } else {
+                        field.set(instance, binder.read(reader, rawType));
+                    }
+                } else {
+                    field.set(instance, binder.read(reader, type));
+                }
+            } catch (NumberFormatException e) {
+                throw new JSONException("Invalid number for field " + field.getName() + ": " + e.getMessage());
+            } catch (IllegalAccessException e) {
+                throw JsonStreamParser.newJSONException(e);
+            }
+        }
+    }
+}
@@ -23,8 +23,16 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackReader;
+
 import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
 import cz.msebera.android.httpclient.HttpStatus;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
 
 /**
  * Used to intercept and handle the responses from requests made using {@link AsyncHttpClient}, with
@@ -40,6 +48,7 @@ public class JsonHttpResponseHandler extends TextHttpResponseHandler {
 
 
     private boolean useRFC5179CompatibilityMode = true;
+    private boolean useStreamingParser;
 
     /**
      * Creates new JsonHttpResponseHandler, with JSON String encoding UTF-8
@@ -136,98 +145,122 @@ public class JsonHttpResponseHandler extends TextHttpResponseHandler {
 
     @Override
     public final void onSuccess(final int statusCode, final Header[] headers, final byte[] responseBytes) {
+        parseSuccess(statusCode, headers, responseBytes, null);
+    }
+
+    /**
+     * Parses pooled response body directly from its chunks, without copying it into a byte array,
+     * see {@link #setUsePooledBody(boolean)}
+     */
+    @Override
+    public final void onSuccessBody(final int statusCode, final Header[] headers, final ResponseBody body) {
+        parseSuccess(statusCode, headers, null, body);
+    }
+
+    private void parseSuccess(final int statusCode, final Header[] headers, final byte[] responseBytes, final ResponseBody body) {
         if (statusCode != HttpStatus.SC_NO_CONTENT) {
             Runnable parser = new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        final Object jsonResponse = parseResponse(responseBytes);
-                        postRunnable(new Runnable() {
-                            @Override
-                            public void run() {
-                                // In RFC5179 a null value is not a valid JSON
-                                if (!useRFC5179CompatibilityMode && jsonResponse == null) {
-                                    onSuccess(statusCode, headers, (String) null);
-                                } else if (jsonResponse instanceof JSONObject) {
-                                    onSuccess(statusCode, headers, (JSONObject) jsonResponse);
-                                } else if (jsonResponse instanceof JSONArray) {
-                                    onSuccess(statusCode, headers, (JSONArray) jsonResponse);
-                                } else if (jsonResponse instanceof String) {
-                                    // In RFC5179 a simple string value is not a valid JSON
-                                    if (useRFC5179CompatibilityMode) {
-                                        onFailure(statusCode, headers, (String) jsonResponse, new JSONException("Response cannot be parsed as JSON data"));
-                                    } else {
-                                        onSuccess(statusCode, headers, (String) jsonResponse);
-                                    }
-                                } else {
-                                    onFailure(statusCode, headers, new JSONException("Unexpected response type " + jsonResponse.getClass().getName()), (JSONObject) null);
-                                }
-                            }
-                        });
+                        final Object jsonResponse = body != null ? parseResponseBody(body) : parseResponse(responseBytes);
+                        postSuccess(statusCode, headers, jsonResponse);
                     } catch (final JSONException ex) {
-                        postRunnable(new Runnable() {
-                            @Override
-                            public void run() {
-                                onFailure(statusCode, headers, ex, (JSONObject) null);
-                            }
-                        });
+                        postParseFailure(statusCode, headers, ex);
                     }
                 }
             };
-            if (!getUseSynchronousMode() && !getUsePoolThread()) {
-                new Thread(parser).start();
-            } else {
-                // In synchronous mode everything should be run on one thread
-                parser.run();
-            }
+            runParser(parser);
         } else {
+            if (body != null) {
+                body.release();
+            }
             onSuccess(statusCode, headers, new JSONObject());
         }
     }
 
+    private void postSuccess(final int statusCode, final Header[] headers, final Object jsonResponse) {
+        postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                // In RFC5179 a null value is not a valid JSON
+                if (!useRFC5179CompatibilityMode && jsonResponse == null) {
+                    onSuccess(statusCode, headers, (String) null);
+                } else if (jsonResponse instanceof JSONObject) {
+                    onSuccess(statusCode, headers, (JSONObject) jsonResponse);
+                } else if (jsonResponse instanceof JSONArray) {
+                    onSuccess(statusCode, headers, (JSONArray) jsonResponse);
+                } else if (jsonResponse instanceof String) {
+                    // In RFC5179 a simple string value is not a valid JSON
+                    if (useRFC5179CompatibilityMode) {
+                        onFailure(statusCode, headers, (String) jsonResponse, new JSONException("Response cannot be parsed as JSON data"));
+                    } else {
+                        onSuccess(statusCode, headers, (String) jsonResponse);
+                    }
+                } else {
+                    onFailure(statusCode, headers, new JSONException("Unexpected response type " + jsonResponse.getClass().getName()), (JSONObject) null);
+                }
+            }
+        });
+    }
+
+    private void postFailure(final int statusCode, final Header[] headers, final Object jsonResponse, final Throwable throwable) {
+        postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                // In RFC5179 a null value is not a valid JSON
+                if (!useRFC5179CompatibilityMode && jsonResponse == null) {
+                    onFailure(statusCode, headers, (String) null, throwable);
+                } else if (jsonResponse instanceof JSONObject) {
+                    onFailure(statusCode, headers, throwable, (JSONObject) jsonResponse);
+                } else if (jsonResponse instanceof JSONArray) {
+                    onFailure(statusCode, headers, throwable, (JSONArray) jsonResponse);
+                } else if (jsonResponse instanceof String) {
+                    onFailure(statusCode, headers, (String) jsonResponse, throwable);
+                } else {
+                    onFailure(statusCode, headers, new JSONException("Unexpected response type " + jsonResponse.getClass().getName()), (JSONObject) null);
+                }
+            }
+        });
+    }
+
+    private void postParseFailure(final int statusCode, final Header[] headers, final JSONException ex) {
+        postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                onFailure(statusCode, headers, ex, (JSONObject) null);
+            }
+        });
+    }
+
     @Override
     public final void onFailure(final int statusCode, final Header[] headers, final byte[] responseBytes, final Throwable throwable) {
-        if (responseBytes != null) {
+        parseFailure(statusCode, headers, responseBytes, null, throwable);
+    }
+
+    /**
+     * Parses pooled response body directly from its chunks, without copying it into a byte array,
+     * see {@link #setUsePooledBody(boolean)}
+     */
+    @Override
+    public final void onFailureBody(final int statusCode, final Header[] headers, final ResponseBody body, final Throwable throwable) {
+        parseFailure(statusCode, headers, null, body, throwable);
+    }
+
+    private void parseFailure(final int statusCode, final Header[] headers, final byte[] responseBytes, final ResponseBody body, final Throwable throwable) {
+        if (responseBytes != null || body != null) {
             Runnable parser = new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        final Object jsonResponse = parseResponse(responseBytes);
-                        postRunnable(new Runnable() {
-                            @Override
-                            public void run() {
-                                // In RFC5179 a null value is not a valid JSON
-                                if (!useRFC5179CompatibilityMode && jsonResponse == null) {
-                                    onFailure(statusCode, headers, (String) null, throwable);
-                                } else if (jsonResponse instanceof JSONObject) {
-                                    onFailure(statusCode, headers, throwable, (JSONObject) jsonResponse);
-                                } else if (jsonResponse instanceof JSONArray) {
-                                    onFailure(statusCode, headers, throwable, (JSONArray) jsonResponse);
-                                } else if (jsonResponse instanceof String) {
-                                    onFailure(statusCode, headers, (String) jsonResponse, throwable);
-                                } else {
-                                    onFailure(statusCode, headers, new JSONException("Unexpected response type " + jsonResponse.getClass().getName()), (JSONObject) null);
-                                }
-                            }
-                        });
-
+                        final Object jsonResponse = body != null ? parseResponseBody(body) : parseResponse(responseBytes);
+                        postFailure(statusCode, headers, jsonResponse, throwable);
                     } catch (final JSONException ex) {
-                        postRunnable(new Runnable() {
-                            @Override
-                            public void run() {
-                                onFailure(statusCode, headers, ex, (JSONObject) null);
-                            }
-                        });
-
+                        postParseFailure(statusCode, headers, ex);
                     }
                 }
             };
-            if (!getUseSynchronousMode() && !getUsePoolThread()) {
-                new Thread(parser).start();
-            } else {
-                // In synchronous mode everything should be run on one thread
-                parser.run();
-            }
+            runParser(parser);
         } else {
             AsyncHttpClient.log.v(LOG_TAG, "response body is null, calling onFailure(Throwable, JSONObject)");
             onFailure(statusCode, headers, throwable, (JSONObject) null);
@@ -245,9 +278,89 @@ public class JsonHttpResponseHandler extends TextHttpResponseHandler {
     protected Object parseResponse(byte[] responseBody) throws JSONException {
         if (null == responseBody)
             return null;
+        return parseResponseString(getResponseString(responseBody, getCharset()));
+    }
+
+    /**
+     * Returns Object of the same types as {@link #parseResponse(byte[])}, decoding the pooled body
+     * directly from its chunks. The body is released.
+     *
+     * @param body response body to be decoded and parsed as JSON
+     * @return Object parsedResponse
+     * @throws org.json.JSONException exception if thrown while parsing JSON
+     */
+    protected Object parseResponseBody(ResponseBody body) throws JSONException {
+        return parseResponseString(getResponseString(body, getCharset()));
+    }
+
+    /**
+     * Parses the response directly from the entity stream while it downloads, see {@link
+     * #setUseStreamingParser(boolean)}. Otherwise the response is handled as usual.
+     */
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        StatusLine status = response.getStatusLine();
+        if (!useStreamingParser || !JsonStreamParser.isSupported() || entity == null
+                || status.getStatusCode() == HttpStatus.SC_NO_CONTENT) {
+            super.sendResponseMessage(response);
+            return;
+        }
+        // do not process if request has been cancelled
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        InputStream instream = entity.getContent();
+        if (instream == null) {
+            super.sendResponseMessage(response);
+            return;
+        }
+        Header[] headers = response.getAllHeaders();
+        Object jsonResponse;
+        JSONException parseError = null;
+        try {
+            jsonResponse = parseResponseStream(new ProgressInputStream(instream, this, entity.getContentLength()));
+        } catch (JSONException e) {
+            jsonResponse = null;
+            parseError = e;
+        } finally {
+            AsyncHttpClient.silentCloseInputStream(instream);
+            AsyncHttpClient.endEntityViaReflection(entity);
+        }
+        // additional cancellation check as parsing can take non-zero time to process
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        flushProgress();
+        if (parseError != null) {
+            postParseFailure(status.getStatusCode(), headers, parseError);
+        } else if (status.getStatusCode() >= 300) {
+            postFailure(status.getStatusCode(), headers, jsonResponse, new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+        } else {
+            postSuccess(status.getStatusCode(), headers, jsonResponse);
+        }
+    }
+
+    /**
+     * Returns Object of the same types as {@link #parseResponse(byte[])}, parsing JSON objects and
+     * arrays directly from the stream, see {@link #setUseStreamingParser(boolean)}
+     *
+     * @param instream response stream to be parsed as JSON
+     * @return Object parsedResponse
+     * @throws IOException            if reading the stream failed
+     * @throws org.json.JSONException exception if thrown while parsing JSON
+     */
+    protected Object parseResponseStream(InputStream instream) throws IOException, JSONException {
+        PushbackReader reader = JsonStreamParser.openReader(instream, getCharset());
+        if (!JsonStreamParser.isStructure(JsonStreamParser.peekFirst(reader))) {
+            return parseResponseString(JsonStreamParser.readRemaining(reader));
+        }
+        return JsonStreamParser.readValue(JsonStreamParser.newJsonReader(reader));
+    }
+
+    private Object parseResponseString(String jsonString) throws JSONException {
         Object result = null;
         //trim the string to prevent start with blank, and test if the string is valid JSON, because the parser don't do this :(. If JSON is not valid this will return null
-        String jsonString = getResponseString(responseBody, getCharset());
         if (jsonString != null) {
             jsonString = jsonString.trim();
             if (useRFC5179CompatibilityMode) {
@@ -282,4 +395,31 @@ public class JsonHttpResponseHandler extends TextHttpResponseHandler {
         this.useRFC5179CompatibilityMode = useRFC5179CompatibilityMode;
     }
 
+    /**
+     * JSON is parsed from the body bytes or from the response stream, see {@link
+     * #setUseStreamingParser(boolean)}, so it is not decoded into text on the reading thread
+     *
+     * @return always false
+     */
+    @Override
+    public boolean isDecodeOnReadingThread() {
+        return false;
+    }
+
+    public boolean isUseStreamingParser() {
+        return useStreamingParser;
+    }
+
+    /**
+     * Sets whether JSON objects and arrays are parsed directly from the response stream while it
+     * downloads, on the thread running the request, instead of buffering the body and decoding it
+     * into a String first. This lowers peak memory and delivers the result sooner. Requires API
+     * 11, on older devices the body is buffered as usual. Default is false.
+     *
+     * @param useStreamingParser whether to parse the response stream
+     */
+    public void setUseStreamingParser(boolean useStreamingParser) {
+        this.useStreamingParser = useStreamingParser;
+    }
+
 }
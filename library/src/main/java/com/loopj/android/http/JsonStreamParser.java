@@ -0,0 +1,273 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ * Parses JSON directly from a response stream with {@link JsonReader}, producing the same objects
+ * as {@link org.json.JSONTokener#nextValue()}, without decoding the whole body into a String
+ * first. {@link JsonReader} is available since API 11, see {@link #isSupported()}.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+final class JsonStreamParser {
+
+    private static final int READER_BUFFER_SIZE = 8 * 1024;
+
+    private JsonStreamParser() {
+    }
+
+    /**
+     * Returns whether streaming parsing is available on this device
+     *
+     * @return boolean
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Opens reader decoding the stream with given charset
+     *
+     * @param instream stream to decode
+     * @param charset  name of the charset
+     * @return reader, which allows to push back the first character
+     * @throws UnsupportedEncodingException if the charset is not supported
+     */
+    static PushbackReader openReader(InputStream instream, String charset) throws UnsupportedEncodingException {
+        if (!Charset.isSupported(charset)) {
+            throw new UnsupportedEncodingException(charset);
+        }
+        return new PushbackReader(new InputStreamReader(instream, charset), 1);
+    }
+
+    /**
+     * Skips leading whitespace and byte order mark, and returns the first significant character,
+     * which is left in the reader
+     *
+     * @param reader reader of the body
+     * @return first character of the JSON value, -1 for empty body
+     * @throws IOException if reading failed
+     */
+    static int peekFirst(PushbackReader reader) throws IOException {
+        int c;
+        do {
+            c = reader.read();
+        } while (c != -1 && (Character.isWhitespace(c) || c == AsyncHttpResponseHandler.UTF8_BOM.charAt(0)));
+        if (c != -1) {
+            reader.unread(c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns whether the first character starts a JSON object or array, which are parsed by
+     * streaming. Other bodies are parsed as a whole, as they are short and can be lenient.
+     *
+     * @param first first character returned by {@link #peekFirst(PushbackReader)}
+     * @return boolean
+     */
+    static boolean isStructure(int first) {
+        return first == '{' || first == '[';
+    }
+
+    /**
+     * Reads rest of the body into String
+     *
+     * @param reader reader of the body
+     * @return remaining characters
+     * @throws IOException if reading failed
+     */
+    static String readRemaining(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[READER_BUFFER_SIZE];
+        int l;
+        while ((l = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, l);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Creates JsonReader as lenient as {@link org.json.JSONTokener}
+     *
+     * @param reader reader of the body
+     * @return JsonReader
+     */
+    static JsonReader newJsonReader(Reader reader) {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        return jsonReader;
+    }
+
+    /**
+     * Reads elements of a top-level JSON array one by one, until the array ends or the handler
+     * stops reading
+     *
+     * @param reader  reader positioned before the array
+     * @param handler handler receiving the elements
+     * @return true if the whole array was read
+     * @throws IOException   if reading failed
+     * @throws JSONException if the JSON is malformed
+     */
+    static boolean readArray(Reader reader, ElementHandler handler) throws IOException, JSONException {
+        JsonReader jsonReader = newJsonReader(reader);
+        try {
+            jsonReader.beginArray();
+            while (jsonReader.peek() != JsonToken.END_ARRAY) {
+                if (!handler.onElement(readValue(jsonReader))) {
+                    return false;
+                }
+            }
+            jsonReader.endArray();
+            return true;
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw newJSONException(e);
+        } catch (IOException e) {
+            if (isMalformed(e)) {
+                throw newJSONException(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads next value as {@link JSONObject}, {@link JSONArray}, String, Boolean, Integer, Long,
+     * Double or {@link JSONObject#NULL}
+     *
+     * @param reader reader positioned before the value
+     * @return parsed value
+     * @throws IOException   if reading failed
+     * @throws JSONException if the JSON is malformed
+     */
+    static Object readValue(JsonReader reader) throws IOException, JSONException {
+        try {
+            return readValueUnchecked(reader);
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw newJSONException(e);
+        } catch (IOException e) {
+            if (isMalformed(e)) {
+                throw newJSONException(e);
+            }
+            throw e;
+        }
+    }
+
+    private static Object readValueUnchecked(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValueUnchecked(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValueUnchecked(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Unexpected token " + reader.peek());
+        }
+    }
+
+    /**
+     * Converts number literal to the same type as {@link org.json.JSONTokener} does
+     *
+     * @param literal number as written in JSON
+     * @return Integer, Long or Double
+     */
+    static Object parseNumber(String literal) {
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                // too large for long, parsed as double below
+            }
+        }
+        return Double.valueOf(literal);
+    }
+
+    /**
+     * Returns whether the exception of JsonReader is caused by malformed JSON, rather than by
+     * reading the stream
+     *
+     * @param e exception thrown by JsonReader
+     * @return boolean
+     */
+    static boolean isMalformed(IOException e) {
+        return e instanceof MalformedJsonException || e instanceof EOFException;
+    }
+
+    static JSONException newJSONException(Exception cause) {
+        JSONException exception = new JSONException(cause.getMessage());
+        exception.initCause(cause);
+        return exception;
+    }
+
+    /**
+     * Receives elements read by {@link #readArray(Reader, ElementHandler)}
+     */
+    interface ElementHandler {
+        /**
+         * Called with each parsed element
+         *
+         * @param element parsed element
+         * @return false to stop reading
+         */
+        boolean onElement(Object element);
+    }
+}
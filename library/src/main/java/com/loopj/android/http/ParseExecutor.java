@@ -0,0 +1,229 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor, on which response handlers deserialize response bodies (eg. {@link
+ * JsonHttpResponseHandler} and {@link BaseJsonHttpResponseHandler}), instead of starting new thread
+ * for every parsed response. <p>&nbsp;</p> Single instance is shared by default, see {@link
+ * #getDefault()}, custom instance can be set client-wide through {@link
+ * AsyncHttpClient#setParseExecutor(ParseExecutor)} or per handler through {@link
+ * AsyncHttpResponseHandler#setParseExecutor(Executor)}. <p>&nbsp;</p> Parsers are usually
+ * executed from the looper thread delivering the response, often the UI thread, so they are never
+ * run on the calling thread. Should the queue get full, parser is queued for a single overflow
+ * thread instead, so a burst of responses is parsed later rather than starting more threads.
+ * Such event is counted in {@link #getRejectedCount()}.
+ */
+public class ParseExecutor implements Executor {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final String LOG_TAG = "ParseExecutor";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static volatile ParseExecutor defaultInstance;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor overflowExecutor;
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalQueueTimeNanos = new AtomicLong();
+    private final AtomicLong totalRunTimeNanos = new AtomicLong();
+    private volatile TimingListener timingListener;
+
+    /**
+     * Creates new executor with worker count based on number of CPU cores and default queue
+     * capacity
+     */
+    public ParseExecutor() {
+        this(getDefaultWorkerCount(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates new executor
+     *
+     * @param workerCount   maximum number of parser threads, must be at least 1
+     * @param queueCapacity maximum number of parsers waiting for a thread, must be at least 1
+     */
+    public ParseExecutor(int workerCount, int queueCapacity) {
+        Utils.asserts(workerCount > 0, "workerCount must be at least 1");
+        Utils.asserts(queueCapacity > 0, "queueCapacity must be at least 1");
+        executor = new ThreadPoolExecutor(workerCount, workerCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ParserThreadFactory("AsyncHttpClient parser #"));
+        executor.allowCoreThreadTimeOut(true);
+        overflowExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ParserThreadFactory("AsyncHttpClient parser overflow #"));
+        overflowExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns process-wide instance used by handlers, which were not given any other executor
+     *
+     * @return shared ParseExecutor instance
+     */
+    public static ParseExecutor getDefault() {
+        if (defaultInstance == null) {
+            synchronized (ParseExecutor.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new ParseExecutor();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    private static int getDefaultWorkerCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    }
+
+    @Override
+    public void execute(Runnable parser) {
+        TimedParser timed = new TimedParser(Utils.notNull(parser, "parser"));
+        try {
+            executor.execute(timed);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            AsyncHttpClient.log.w(LOG_TAG, "Parse queue is full, parsing on the overflow thread");
+            overflowExecutor.execute(timed);
+        }
+    }
+
+    /**
+     * Sets listener to be notified about timing of every parse
+     *
+     * @param timingListener listener, may be null to stop notifications
+     */
+    public void setTimingListener(TimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
+    /**
+     * Returns number of parsers waiting for a free thread, including the overflow thread
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size() + overflowExecutor.getQueue().size();
+    }
+
+    /**
+     * Returns number of finished parses
+     *
+     * @return completed parse count
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns number of parses which didn't fit into the queue and were run on the overflow thread
+     *
+     * @return rejected parse count
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns total time finished parses spent waiting in queue
+     *
+     * @return total queue time in milliseconds
+     */
+    public long getTotalQueueTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalQueueTimeNanos.get());
+    }
+
+    /**
+     * Returns total time finished parses spent running
+     *
+     * @return total run time in milliseconds
+     */
+    public long getTotalRunTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalRunTimeNanos.get());
+    }
+
+    /**
+     * Stops accepting new parsers, already queued ones are finished. Parsers executed afterwards
+     * are run on the overflow thread, which stops once it is idle. Do not shut down {@link
+     * #getDefault()} instance, as it is shared by all handlers.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Notified about every finished parse, on the thread which run the parser
+     */
+    public interface TimingListener {
+        /**
+         * @param queueTimeMillis time the parser waited for a free thread
+         * @param runTimeMillis   time the parser was running
+         */
+        void onParseTimed(long queueTimeMillis, long runTimeMillis);
+    }
+
+    private class TimedParser implements Runnable {
+        private final Runnable parser;
+        private final long queuedAt = System.nanoTime();
+
+        TimedParser(Runnable parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            try {
+                parser.run();
+            } finally {
+                long queueTime = startedAt - queuedAt;
+                long runTime = System.nanoTime() - startedAt;
+                completedCount.incrementAndGet();
+                totalQueueTimeNanos.addAndGet(queueTime);
+                totalRunTimeNanos.addAndGet(runTime);
+                TimingListener listener = timingListener;
+                if (listener != null) {
+                    listener.onParseTimed(TimeUnit.NANOSECONDS.toMillis(queueTime), TimeUnit.NANOSECONDS.toMillis(runTime));
+                }
+            }
+        }
+    }
+
+    private static class ParserThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String namePrefix;
+
+        ParserThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, namePrefix + count.incrementAndGet());
+        }
+    }
+}
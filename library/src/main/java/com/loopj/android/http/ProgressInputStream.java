@@ -0,0 +1,86 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Stream reporting number of bytes read to response handler as progress, used when the response
+ * is consumed directly from the entity instead of being buffered. Reading fails with {@link
+ * InterruptedIOException} once the request thread was interrupted by cancellation.
+ */
+class ProgressInputStream extends FilterInputStream {
+
+    private final ResponseHandlerInterface responseHandler;
+    private final long total;
+    private long count;
+
+    /**
+     * @param in              stream to read from
+     * @param responseHandler handler to report the progress to
+     * @param contentLength   length of the stream, negative if unknown
+     */
+    ProgressInputStream(InputStream in, ResponseHandlerInterface responseHandler, long contentLength) {
+        super(in);
+        this.responseHandler = responseHandler;
+        this.total = contentLength <= 0 ? 1 : contentLength;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Request was cancelled");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkCancelled();
+        int b = super.read();
+        if (b != -1) {
+            count++;
+            responseHandler.sendProgressMessage(count, total);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        checkCancelled();
+        int l = super.read(buffer, offset, length);
+        if (l > 0) {
+            count += l;
+            responseHandler.sendProgressMessage(count, total);
+        }
+        return l;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkCancelled();
+        long l = super.skip(n);
+        if (l > 0) {
+            count += l;
+            responseHandler.sendProgressMessage(count, total);
+        }
+        return l;
+    }
+}
@@ -19,9 +19,10 @@
 package com.loopj.android.http;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.HttpEntity;
@@ -30,13 +31,44 @@ import cz.msebera.android.httpclient.HttpStatus;
 import cz.msebera.android.httpclient.StatusLine;
 import cz.msebera.android.httpclient.client.HttpResponseException;
 import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
+import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
+import cz.msebera.android.httpclient.protocol.HttpContext;
 
-
+/**
+ * Response handler storing response in a file, which resumes download from the end of the file
+ * when it already exists. <p>&nbsp;</p> With {@link #setSegmentCount(int)} greater than one,
+ * the file is downloaded as that many byte ranges fetched concurrently over separate
+ * connections, provided the server supports range requests and the file is at least {@link
+ * #getMinSegmentSize()} long per segment. Segmented download always starts from the beginning of
+ * the file, unless the journal is used, the file has holes until all segments are downloaded.
+ * Connection manager of the client must allow as many connections per route as there are
+ * segments. Segment requests bypass the per-host request limit of the client, but pass its
+ * {@link CircuitBreaker}, see {@link AsyncHttpClient#setCircuitBreaker(CircuitBreaker)}.
+ * Segments of all downloads share a small bounded pool of threads. Segmented download is not
+ * used when digests are computed, see {@link #setDigestAlgorithms(String...)}, they cover the
+ * whole file including the part downloaded before resuming, which is read from disk once.
+ * <p>&nbsp;</p> With {@link
+ * #setUseJournal(boolean)}, progress of the download is recorded in sidecar journal {@link
+ * #getJournalFile()} together with {@code ETag} or {@code Last-Modified} of the remote file and
+ * checksums of downloaded chunks. Download resumes only from chunks matching their checksums,
+ * with {@code If-Range} header, and starts from the beginning when the remote file changed.
+ * Existing file without journal is downloaded again.
+ */
 public abstract class RangeFileAsyncHttpResponseHandler extends FileAsyncHttpResponseHandler {
     private static final String LOG_TAG = "RangeFileAsyncHttpRH";
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENT_RETRIES = 3;
 
     private long current = 0;
     private boolean append = false;
+    private volatile int segmentCount = 1;
+    private volatile long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    private volatile int maxSegmentRetries = DEFAULT_MAX_SEGMENT_RETRIES;
+    private volatile boolean useJournal;
+    private DownloadJournal journal;
+    private AbstractHttpClient httpClient;
+    private HttpContext httpContext;
+    private CircuitBreaker circuitBreaker;
 
     /**
      * Obtains new RangeFileAsyncHttpResponseHandler and stores response in passed file
@@ -47,12 +79,107 @@ public abstract class RangeFileAsyncHttpResponseHandler extends FileAsyncHttpRes
         super(file);
     }
 
+    /**
+     * Returns number of segments the file is downloaded in
+     *
+     * @return number of segments, 1 if segmented download is disabled
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Sets number of byte ranges the file is downloaded in concurrently, 1 by default
+     *
+     * @param segmentCount number of segments, 1 disables segmented download
+     */
+    public void setSegmentCount(int segmentCount) {
+        Utils.asserts(segmentCount > 0, "segmentCount must be positive");
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Returns minimal size of single segment, smaller files are downloaded in fewer segments
+     *
+     * @return minimal size of segment in bytes
+     */
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * Sets minimal size of single segment, {@link #DEFAULT_MIN_SEGMENT_SIZE} by default
+     *
+     * @param minSegmentSize minimal size of segment in bytes, must be positive
+     */
+    public void setMinSegmentSize(long minSegmentSize) {
+        Utils.asserts(minSegmentSize > 0, "minSegmentSize must be positive");
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    /**
+     * Sets how many times a failed segment is requested again from its last written byte before
+     * the whole download fails, {@link #DEFAULT_MAX_SEGMENT_RETRIES} by default
+     *
+     * @param maxSegmentRetries number of retries of each segment
+     */
+    public void setMaxSegmentRetries(int maxSegmentRetries) {
+        Utils.asserts(maxSegmentRetries >= 0, "maxSegmentRetries must not be negative");
+        this.maxSegmentRetries = maxSegmentRetries;
+    }
+
+    /**
+     * Returns whether download progress is recorded in the journal
+     *
+     * @return true if the journal is used
+     */
+    public boolean getUseJournal() {
+        return useJournal;
+    }
+
+    /**
+     * Sets whether download progress is recorded in sidecar journal, so the download can be
+     * safely resumed even after the remote file changed, false by default
+     *
+     * @param useJournal whether to use the journal
+     */
+    public void setUseJournal(boolean useJournal) {
+        this.useJournal = useJournal;
+    }
+
+    /**
+     * Returns sidecar journal file of the download
+     *
+     * @return journal file next to the target file
+     */
+    public File getJournalFile() {
+        return DownloadJournal.getJournalFile(file);
+    }
+
+    void setHttpClient(AbstractHttpClient httpClient, HttpContext httpContext, CircuitBreaker circuitBreaker) {
+        this.httpClient = httpClient;
+        this.httpContext = httpContext;
+        this.circuitBreaker = circuitBreaker;
+    }
+
     @Override
     public void sendResponseMessage(HttpResponse response) throws IOException {
         if (!Thread.currentThread().isInterrupted()) {
             StatusLine status = response.getStatusLine();
+            startDigest(response);
             if (status.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
                 //already finished
+                if (journal != null) {
+                    journal.delete();
+                    journal = null;
+                }
+                try {
+                    digestCompleteFile();
+                } catch (DigestMismatchException e) {
+                    if (!Thread.currentThread().isInterrupted())
+                        sendFailureMessage(status.getStatusCode(), response.getAllHeaders(), null, e);
+                    return;
+                }
                 if (!Thread.currentThread().isInterrupted())
                     sendSuccessMessage(status.getStatusCode(), response.getAllHeaders(), null);
             } else if (status.getStatusCode() >= 300) {
@@ -60,14 +187,159 @@ public abstract class RangeFileAsyncHttpResponseHandler extends FileAsyncHttpRes
                     sendFailureMessage(status.getStatusCode(), response.getAllHeaders(), null, new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
             } else {
                 if (!Thread.currentThread().isInterrupted()) {
-                    Header header = response.getFirstHeader(AsyncHttpClient.HEADER_CONTENT_RANGE);
-                    if (header == null) {
-                        append = false;
-                        current = 0;
-                    } else {
-                        AsyncHttpClient.log.v(LOG_TAG, AsyncHttpClient.HEADER_CONTENT_RANGE + ": " + header.getValue());
+                    try {
+                        if (isManaged()) {
+                            getManagedResponseData(response);
+                            if (!Thread.currentThread().isInterrupted())
+                                sendSuccessMessage(status.getStatusCode(), response.getAllHeaders(), null);
+                            return;
+                        }
+                        Header header = response.getFirstHeader(AsyncHttpClient.HEADER_CONTENT_RANGE);
+                        if (header == null) {
+                            append = false;
+                            current = 0;
+                        } else {
+                            AsyncHttpClient.log.v(LOG_TAG, AsyncHttpClient.HEADER_CONTENT_RANGE + ": " + header.getValue());
+                        }
+                        sendSuccessMessage(status.getStatusCode(), response.getAllHeaders(), getResponseData(response.getEntity()));
+                    } catch (DigestMismatchException e) {
+                        if (!Thread.currentThread().isInterrupted())
+                            sendFailureMessage(status.getStatusCode(), response.getAllHeaders(), null, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes digests of the file downloaded completely before, so that expected digests are
+     * verified even when nothing is left to download
+     */
+    private void digestCompleteFile() throws IOException {
+        if (!hasDigests()) {
+            return;
+        }
+        RandomAccessFile input = new RandomAccessFile(getTargetFile(), "r");
+        try {
+            updateDigest(input.getChannel(), input.length());
+        } finally {
+            input.close();
+        }
+        finishDigest();
+    }
+
+    private boolean isSegmented() {
+        return segmentCount > 1 && httpClient != null && !hasDigests();
+    }
+
+    private boolean isManaged() {
+        return useJournal || isSegmented();
+    }
+
+    private DownloadJournal loadJournal() {
+        File journalFile = getJournalFile();
+        DownloadJournal loaded = file.isFile() ? DownloadJournal.load(journalFile) : null;
+        if (loaded != null) {
+            try {
+                loaded.verify(file, getBufferPool());
+                return loaded;
+            } catch (IOException e) {
+                AsyncHttpClient.log.w(LOG_TAG, "Cannot verify downloaded file, download restarts", e);
+            }
+        }
+        DownloadJournal.deleteFile(journalFile);
+        return null;
+    }
+
+    private void getManagedResponseData(HttpResponse response) throws IOException {
+        StatusLine status = response.getStatusLine();
+        boolean partial = status.getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+        Header header = response.getFirstHeader(AsyncHttpClient.HEADER_CONTENT_RANGE);
+        long[] range = header == null ? null : SegmentedDownload.parseContentRange(header.getValue());
+        if (partial && (range == null || range[0] != current)) {
+            SegmentedDownload.abortResponse(response);
+            throw new HttpResponseException(status.getStatusCode(), "Server did not return requested range");
+        }
+        HttpEntity entity = response.getEntity();
+        long totalLength = partial ? range[2] : entity == null ? -1 : entity.getContentLength();
+        if (journal != null && (!partial || totalLength != journal.getLength() || !journal.matches(response))) {
+            AsyncHttpClient.log.i(LOG_TAG, "Remote file changed, download restarts");
+            journal.delete();
+            journal = null;
+            current = 0;
+            append = false;
+            if (partial) {
+                // If-Range was ignored, the rest of the changed file is useless, next attempt starts over
+                SegmentedDownload.abortResponse(response);
+                throw new IOException("Remote file changed, download restarts");
+            }
+        }
+        if (journal == null && useJournal) {
+            journal = DownloadJournal.create(getJournalFile(), response, totalLength);
+            if (journal == null) {
+                AsyncHttpClient.log.w(LOG_TAG, "Response has no ETag nor Last-Modified, download cannot be resumed");
+            }
+        }
+        int segments = partial && totalLength >= 0 && isSegmented() ? (int) Math.min(segmentCount, totalLength / minSegmentSize) : 1;
+        DownloadJournal ranges = journal;
+        if (ranges == null && segments > 1) {
+            ranges = new DownloadJournal(null, null, null, totalLength);
+        }
+        if (ranges != null && ranges.getRanges().isEmpty()) {
+            if (segments > 1) {
+                ranges.split(segments);
+            } else {
+                ranges.addRange(0, totalLength < 0 ? Long.MAX_VALUE : totalLength);
+            }
+            try {
+                ranges.save();
+            } catch (IOException e) {
+                AsyncHttpClient.log.w(LOG_TAG, "Cannot save download journal", e);
+            }
+        }
+
+        boolean complete = false;
+        try {
+            if (ranges != null && ranges.getRanges().size() > 1) {
+                AsyncHttpClient.log.v(LOG_TAG, "Downloading " + totalLength + " bytes in " + ranges.getRanges().size() + " segments");
+                RandomAccessFile output = openTargetFile(append);
+                try {
+                    output.setLength(totalLength);
+                    new SegmentedDownload(this, httpClient, httpContext, circuitBreaker, output.getChannel(), ranges, maxSegmentRetries)
+                            .download(response);
+                } finally {
+                    output.close();
+                }
+                current = totalLength;
+            } else {
+                getResponseData(entity);
+            }
+            complete = !Thread.currentThread().isInterrupted();
+        } catch (DigestMismatchException e) {
+            // complete but corrupted file must not be resumed
+            if (journal != null) {
+                journal.delete();
+                journal = null;
+            }
+            throw e;
+        } catch (HttpResponseException e) {
+            if (journal != null && e.getStatusCode() == HttpStatus.SC_OK) {
+                // segment request with If-Range got the whole changed file
+                journal.delete();
+                journal = null;
+                throw new IOException("Remote file changed, download restarts", e);
+            }
+            throw e;
+        } finally {
+            if (journal != null) {
+                if (complete) {
+                    journal.delete();
+                } else {
+                    try {
+                        journal.save();
+                    } catch (IOException e) {
+                        AsyncHttpClient.log.w(LOG_TAG, "Cannot save download journal", e);
                     }
-                    sendSuccessMessage(status.getStatusCode(), response.getAllHeaders(), getResponseData(response.getEntity()));
                 }
             }
         }
@@ -78,27 +350,55 @@ public abstract class RangeFileAsyncHttpResponseHandler extends FileAsyncHttpRes
         if (entity != null) {
             InputStream instream = entity.getContent();
             long contentLength = entity.getContentLength() + current;
-            FileOutputStream buffer = new FileOutputStream(getTargetFile(), append);
+            RandomAccessFile output = openTargetFile(append);
+            if (output.length() > current) {
+                // journal verified only data before the current position
+                output.setLength(current);
+            }
             if (instream != null) {
                 try {
-                    byte[] tmp = new byte[BUFFER_SIZE];
-                    int l;
-                    while (current < contentLength && (l = instream.read(tmp)) != -1 && !Thread.currentThread().isInterrupted()) {
-                        current += l;
-                        buffer.write(tmp, 0, l);
-                        sendProgressMessage(current, contentLength);
+                    long limit = entity.getContentLength() < 0 ? -1 : contentLength - current;
+                    DownloadJournal.Range range = journal == null ? null : journal.getFirstIncompleteRange();
+                    AtomicLong written = range == null ? new AtomicLong(current) : range.written;
+                    try {
+                        updateDigest(output.getChannel(), current);
+                        transferToFile(instream, output.getChannel(), current, limit, written, range, contentLength, true);
+                    } finally {
+                        current = written.get();
+                    }
+                    if (journal != null && limit >= 0 && current < contentLength && !Thread.currentThread().isInterrupted()) {
+                        throw new IOException("Response ended prematurely");
                     }
+                    finishDigest();
                 } finally {
                     instream.close();
-                    buffer.flush();
-                    buffer.close();
+                    output.close();
                 }
+            } else {
+                output.close();
             }
         }
         return null;
     }
 
     public void updateRequestHeaders(HttpUriRequest uriRequest) {
+        if (isManaged()) {
+            // bytes on disk are trusted only when verified against the journal
+            journal = useJournal ? loadJournal() : null;
+            DownloadJournal.Range range = journal == null ? null : journal.getFirstIncompleteRange();
+            current = journal == null ? 0 : range == null ? journal.getLength() : range.getPosition();
+            append = current > 0;
+            // probes range support, the first incomplete range is read from this response
+            SegmentedDownload.prepareRequest(uriRequest);
+            uriRequest.setHeader("Range", "bytes=" + current + "-");
+            if (journal != null) {
+                uriRequest.setHeader("If-Range", journal.getIfRange());
+            } else {
+                // retried request must not keep validator of a journal discarded meanwhile
+                uriRequest.removeHeaders("If-Range");
+            }
+            return;
+        }
         if (file.exists() && file.canWrite())
             current = file.length();
         if (current > 0) {
@@ -0,0 +1,468 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpEntityEnclosingRequest;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
+import cz.msebera.android.httpclient.entity.InputStreamEntity;
+import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
+import cz.msebera.android.httpclient.message.BasicHttpResponse;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * Single-flight coalescing of identical GET and HEAD requests, see {@link
+ * AsyncHttpClient#setRequestCoalescingEnabled(boolean)}. <p>&nbsp;</p> Concurrent requests with
+ * the same method, URI and cache-relevant headers share one network request. The shared response
+ * body is read once into a {@link ResponseBody}, which spills to a temporary file by the buffer
+ * pool and spill settings of the first {@link AsyncHttpResponseHandler} subscriber, and every
+ * subscribed handler then streams its own copy of the response from it through {@link
+ * ResponseHandlerInterface#sendResponseMessage(HttpResponse)}, so file, JSON or other
+ * specialized handlers behave as if they had sent the request themselves. Every subscriber can be
+ * cancelled independently, the shared request is aborted only when the last subscriber cancels.
+ */
+class RequestCoalescer {
+
+    private static final String LOG_TAG = "RequestCoalescer";
+    private static final String[] CACHE_RELEVANT_HEADERS = new String[]{
+            "Accept",
+            "Accept-Charset",
+            "Accept-Encoding",
+            "Accept-Language",
+            "Authorization",
+            "Cache-Control",
+            "Cookie",
+            "If-Modified-Since",
+            "If-None-Match",
+            "Pragma",
+            "Range"
+    };
+
+    private final Map<String, Group> groups = new HashMap<String, Group>();
+
+    /**
+     * Checks whether the request can share network request with other identical requests
+     *
+     * @param request         request to be sent
+     * @param responseHandler handler of the request
+     * @return true if the request is GET or HEAD without body and its handler doesn't alter the
+     * request before sending
+     */
+    static boolean isCoalescable(HttpUriRequest request, ResponseHandlerInterface responseHandler) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+            return false;
+        }
+        // range requests are built from state of the handler, right before they are sent
+        return !(responseHandler instanceof RangeFileAsyncHttpResponseHandler);
+    }
+
+    private static String getKey(HttpUriRequest request) {
+        StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(request.getURI());
+        for (String name : CACHE_RELEVANT_HEADERS) {
+            for (Header header : request.getHeaders(name)) {
+                key.append('\n').append(name).append(": ").append(header.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Subscribes the handler to in-flight identical request, or creates new group for it. If
+     * {@link CoalescedRequest#isFirstSubscriber()} is true, the caller has to create shared request
+     * and pass it to {@link #start(CoalescedRequest, AsyncHttpRequest)}.
+     *
+     * @param client          client executing the request
+     * @param context         context of the request execution
+     * @param request         request to be sent
+     * @param responseHandler handler of the subscriber
+     * @return request representing the subscriber, never run by itself
+     */
+    synchronized CoalescedRequest subscribe(AbstractHttpClient client, HttpContext context, HttpUriRequest request, ResponseHandlerInterface responseHandler) {
+        String key = getKey(request);
+        Group group = groups.get(key);
+        boolean first = group == null;
+        if (first) {
+            group = new Group(key);
+            groups.put(key, group);
+        }
+        CoalescedRequest subscriber = new CoalescedRequest(client, context, request, responseHandler, group, first);
+        group.subscribers.add(subscriber);
+        if (group.isStarted) {
+            responseHandler.sendStartMessage();
+        }
+        return subscriber;
+    }
+
+    /**
+     * Attaches shared request to the group of first subscriber
+     *
+     * @param firstSubscriber subscriber which created the group
+     * @param shared          shared request, created with {@link CoalescedRequest#getSharedHandler()}
+     * @return false if all subscribers cancelled in the meantime and shared request should not be
+     * dispatched
+     */
+    boolean start(CoalescedRequest firstSubscriber, AsyncHttpRequest shared) {
+        final Group group = firstSubscriber.group;
+        synchronized (this) {
+            if (group.subscribers.isEmpty()) {
+                return false;
+            }
+            group.shared = shared;
+        }
+        shared.addCompletionListener(new AsyncHttpRequest.CompletionListener() {
+            @Override
+            public void onRequestCompleted(AsyncHttpRequest request) {
+                close(group);
+                // subscribers left over by shared request, which did not reach its finish
+                for (CoalescedRequest subscriber : getSubscribers(group)) {
+                    subscriber.markFinished();
+                }
+            }
+        });
+        return true;
+    }
+
+    private synchronized void close(Group group) {
+        if (groups.get(group.key) == group) {
+            groups.remove(group.key);
+        }
+    }
+
+    private synchronized List<CoalescedRequest> getSubscribers(Group group) {
+        return new ArrayList<CoalescedRequest>(group.subscribers);
+    }
+
+    private void unsubscribe(CoalescedRequest subscriber, boolean mayInterruptIfRunning) {
+        Group group = subscriber.group;
+        AsyncHttpRequest sharedToCancel = null;
+        synchronized (this) {
+            if (!group.subscribers.remove(subscriber)) {
+                return;
+            }
+            if (group.subscribers.isEmpty()) {
+                if (groups.get(group.key) == group) {
+                    groups.remove(group.key);
+                }
+                sharedToCancel = group.shared;
+            }
+        }
+        if (sharedToCancel != null) {
+            sharedToCancel.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    private class Group {
+        final String key;
+        final List<CoalescedRequest> subscribers = new ArrayList<CoalescedRequest>();
+        final FanOutResponseHandler handler = new FanOutResponseHandler(this);
+        AsyncHttpRequest shared;
+        boolean isStarted;
+
+        Group(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Request of a single subscriber, never run by itself, it is finished once the shared request
+     * finishes, or cancelled independently of other subscribers
+     */
+    class CoalescedRequest extends AsyncHttpRequest {
+        private final Group group;
+        private final boolean isFirstSubscriber;
+        private final ResponseHandlerInterface responseHandler;
+        private volatile boolean mayInterruptIfRunning;
+
+        CoalescedRequest(AbstractHttpClient client, HttpContext context, HttpUriRequest request, ResponseHandlerInterface responseHandler, Group group, boolean isFirstSubscriber) {
+            super(client, context, request, responseHandler);
+            this.responseHandler = responseHandler;
+            this.group = group;
+            this.isFirstSubscriber = isFirstSubscriber;
+        }
+
+        boolean isFirstSubscriber() {
+            return isFirstSubscriber;
+        }
+
+        ResponseHandlerInterface getSharedHandler() {
+            return group.handler;
+        }
+
+        @Override
+        public void run() {
+            throw new IllegalStateException("Coalesced request is executed by the shared request");
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            this.mayInterruptIfRunning = mayInterruptIfRunning;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        void abort() {
+            unsubscribe(this, mayInterruptIfRunning);
+        }
+
+        @Override
+        public AsyncHttpRequest setPriority(RequestPriority priority) {
+            super.setPriority(priority);
+            AsyncHttpRequest shared = group.shared;
+            if (shared != null && priority.compareTo(shared.getPriority()) < 0) {
+                shared.setPriority(priority);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Handler of the shared request, which forwards all events to subscribers
+     */
+    private class FanOutResponseHandler implements ResponseHandlerInterface {
+        private final Group group;
+        private URI requestURI;
+        private Header[] requestHeaders;
+
+        FanOutResponseHandler(Group group) {
+            this.group = group;
+        }
+
+        @Override
+        public void sendResponseMessage(HttpResponse response) throws IOException {
+            // nobody can join once the response is being delivered
+            close(group);
+
+            List<CoalescedRequest> subscribers = getSubscribers(group);
+            HttpEntity entity = response.getEntity();
+            ResponseBody body = null;
+            try {
+                if (entity != null) {
+                    body = readBody(entity, newResponseBody(subscribers));
+                }
+
+                for (CoalescedRequest subscriber : subscribers) {
+                    if (subscriber.isCancelled()) {
+                        continue;
+                    }
+                    ResponseHandlerInterface handler = subscriber.responseHandler;
+                    InputStream instream = body == null ? null : body.getInputStream();
+                    try {
+                        HttpResponse copy = copyResponse(response, entity, instream, body == null ? 0 : body.length());
+                        handler.onPreProcessResponse(handler, copy);
+                        handler.sendResponseMessage(copy);
+                        handler.onPostProcessResponse(handler, copy);
+                    } catch (IOException e) {
+                        handler.sendFailureMessage(0, null, null, e);
+                    } finally {
+                        AsyncHttpClient.silentCloseInputStream(instream);
+                    }
+                }
+            } finally {
+                if (body != null) {
+                    body.release();
+                }
+            }
+        }
+
+        /**
+         * Creates body for the shared response with settings of the first subscriber which has
+         * any, the body is streamed to subscribers, so it may spill regardless of their {@link
+         * AsyncHttpResponseHandler#getUsePooledBody()}
+         */
+        private ResponseBody newResponseBody(List<CoalescedRequest> subscribers) {
+            for (CoalescedRequest subscriber : subscribers) {
+                if (subscriber.responseHandler instanceof AsyncHttpResponseHandler) {
+                    AsyncHttpResponseHandler handler = (AsyncHttpResponseHandler) subscriber.responseHandler;
+                    return new ResponseBody(handler.getBufferPool(), handler.getSpillThreshold(), handler.getSpillDirectory());
+                }
+            }
+            return new ResponseBody(BufferPool.getDefault(), AsyncHttpResponseHandler.DEFAULT_SPILL_THRESHOLD, null);
+        }
+
+        private ResponseBody readBody(HttpEntity entity, ResponseBody body) throws IOException {
+            InputStream instream = entity.getContent();
+            if (instream == null) {
+                return body;
+            }
+            long contentLength = entity.getContentLength();
+            boolean complete = false;
+            try {
+                long count = 0;
+                int l;
+                while ((l = body.readFrom(instream)) != -1 && !Thread.currentThread().isInterrupted()) {
+                    count += l;
+                    sendProgressMessage(count, contentLength <= 0 ? 1 : contentLength);
+                }
+                complete = true;
+            } finally {
+                AsyncHttpClient.silentCloseInputStream(instream);
+                AsyncHttpClient.endEntityViaReflection(entity);
+                if (!complete) {
+                    body.release();
+                }
+            }
+            return body;
+        }
+
+        private HttpResponse copyResponse(HttpResponse response, HttpEntity entity, InputStream body, long length) {
+            BasicHttpResponse copy = new BasicHttpResponse(response.getStatusLine());
+            copy.setHeaders(response.getAllHeaders());
+            copy.setLocale(response.getLocale());
+            if (entity != null) {
+                InputStreamEntity bodyEntity = new InputStreamEntity(body == null ? new ByteArrayInputStream(new byte[0]) : body, length);
+                bodyEntity.setContentType(entity.getContentType());
+                copy.setEntity(bodyEntity);
+            }
+            return copy;
+        }
+
+        @Override
+        public void sendStartMessage() {
+            List<CoalescedRequest> subscribers;
+            synchronized (RequestCoalescer.this) {
+                group.isStarted = true;
+                subscribers = new ArrayList<CoalescedRequest>(group.subscribers);
+            }
+            for (CoalescedRequest subscriber : subscribers) {
+                subscriber.responseHandler.sendStartMessage();
+            }
+        }
+
+        @Override
+        public void sendFinishMessage() {
+            close(group);
+            for (CoalescedRequest subscriber : getSubscribers(group)) {
+                if (!subscriber.isCancelled()) {
+                    subscriber.responseHandler.sendFinishMessage();
+                    subscriber.markFinished();
+                }
+            }
+        }
+
+        @Override
+        public void sendProgressMessage(long bytesWritten, long bytesTotal) {
+            for (CoalescedRequest subscriber : getSubscribers(group)) {
+                subscriber.responseHandler.sendProgressMessage(bytesWritten, bytesTotal);
+            }
+        }
+
+        @Override
+        public void sendCancelMessage() {
+            // shared request is cancelled only after all subscribers were notified
+            AsyncHttpClient.log.d(LOG_TAG, "Shared request cancelled, no subscribers left");
+        }
+
+        @Override
+        public void sendSuccessMessage(int statusCode, Header[] headers, byte[] responseBody) {
+            for (CoalescedRequest subscriber : getSubscribers(group)) {
+                subscriber.responseHandler.sendSuccessMessage(statusCode, headers, responseBody);
+            }
+        }
+
+        @Override
+        public void sendFailureMessage(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+            close(group);
+            for (CoalescedRequest subscriber : getSubscribers(group)) {
+                subscriber.responseHandler.sendFailureMessage(statusCode, headers, responseBody, error);
+            }
+        }
+
+        @Override
+        public void sendRetryMessage(int retryNo) {
+            for (CoalescedRequest subscriber : getSubscribers(group)) {
+                subscriber.responseHandler.sendRetryMessage(retryNo);
+            }
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return requestURI;
+        }
+
+        @Override
+        public void setRequestURI(URI requestURI) {
+            this.requestURI = requestURI;
+        }
+
+        @Override
+        public Header[] getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public void setRequestHeaders(Header[] requestHeaders) {
+            this.requestHeaders = requestHeaders;
+        }
+
+        @Override
+        public boolean getUseSynchronousMode() {
+            return false;
+        }
+
+        @Override
+        public void setUseSynchronousMode(boolean useSynchronousMode) {
+            // events are delivered by handlers of subscribers
+        }
+
+        @Override
+        public boolean getUsePoolThread() {
+            return false;
+        }
+
+        @Override
+        public void setUsePoolThread(boolean usePoolThread) {
+            // events are delivered by handlers of subscribers
+        }
+
+        @Override
+        public void onPreProcessResponse(ResponseHandlerInterface instance, HttpResponse response) {
+            // called for every subscriber with its own copy of the response
+        }
+
+        @Override
+        public void onPostProcessResponse(ResponseHandlerInterface instance, HttpResponse response) {
+            // called for every subscriber with its own copy of the response
+        }
+
+        @Override
+        public Object getTag() {
+            return null;
+        }
+
+        @Override
+        public void setTag(Object TAG) {
+            // subscribers keep their own TAGs
+        }
+    }
+}
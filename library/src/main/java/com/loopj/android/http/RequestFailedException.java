@@ -0,0 +1,44 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+
+/**
+ * Failure of {@link RequestFuture} obtained from {@link FutureResponseHandler}, carries status,
+ * headers and body of the failed response, if there was any
+ */
+public class RequestFailedException extends IOException {
+    private static final long serialVersionUID = 3426409342763219453L;
+    private final transient RequestResult result;
+
+    public RequestFailedException(RequestResult result, Throwable cause) {
+        super(cause == null ? "Request failed with status " + result.getStatusCode() : cause.getMessage(), cause);
+        this.result = result;
+    }
+
+    /**
+     * Returns status, headers and body of the failed response
+     *
+     * @return result of the request, status code is 0 if no response was received
+     */
+    public RequestResult getResult() {
+        return result;
+    }
+}
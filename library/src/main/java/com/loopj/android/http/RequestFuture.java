@@ -0,0 +1,470 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Future of an asynchronous result, which can be composed with other futures without blocking
+ * threads. <p>&nbsp;</p> Listeners and transformations run on the thread which completed the
+ * future, usually a pool thread of {@link AsyncHttpClient}, unless an {@link Executor} is given,
+ * they should therefore be short. Timeouts are driven by a single timer thread shared by the
+ * library, so waiting for any number of futures costs no pool threads. <p>&nbsp;</p>
+ * <pre>
+ *     FutureResponseHandler first = new FutureResponseHandler();
+ *     FutureResponseHandler second = new FutureResponseHandler();
+ *     client.get("https://example.com/a", first);
+ *     client.get("https://example.com/b", second);
+ *     List&lt;RequestResult&gt; results = RequestFuture.allOf(Arrays.asList(first.getFuture(), second.getFuture()))
+ *             .withTimeout(10, TimeUnit.SECONDS)
+ *             .get();
+ * </pre>
+ *
+ * @param <T> type of the result
+ * @see FutureResponseHandler
+ */
+public class RequestFuture<T> implements Future<T> {
+
+    private static final String LOG_TAG = "RequestFuture";
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private final List<Runnable> listeners = new ArrayList<Runnable>();
+    private int state = PENDING;
+    private T result;
+    private Throwable error;
+
+    /**
+     * Returns future already completed with given result
+     *
+     * @param result result of the future
+     * @param <T>    type of the result
+     * @return completed future
+     */
+    public static <T> RequestFuture<T> completed(T result) {
+        RequestFuture<T> future = new RequestFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Returns future already failed with given error
+     *
+     * @param error cause of the failure, must not be null
+     * @param <T>   type of the result
+     * @return failed future
+     */
+    public static <T> RequestFuture<T> failed(Throwable error) {
+        RequestFuture<T> future = new RequestFuture<T>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * Returns future which completes with results of all given futures, in the same order, once
+     * all of them succeed. It fails as soon as any of them fails, remaining futures are left
+     * running. Cancelling returned future cancels all given futures.
+     *
+     * @param futures futures to wait for
+     * @param <T>     type of the results
+     * @return future of all results
+     */
+    public static <T> RequestFuture<List<T>> allOf(Collection<? extends RequestFuture<? extends T>> futures) {
+        final List<RequestFuture<? extends T>> inputs = new ArrayList<RequestFuture<? extends T>>(futures);
+        final RequestFuture<List<T>> all = new RequestFuture<List<T>>() {
+            @Override
+            protected void onCancelled(boolean mayInterruptIfRunning) {
+                for (RequestFuture<? extends T> input : inputs) {
+                    input.cancel(mayInterruptIfRunning);
+                }
+            }
+        };
+        if (inputs.isEmpty()) {
+            all.complete(new ArrayList<T>());
+            return all;
+        }
+        final AtomicInteger remaining = new AtomicInteger(inputs.size());
+        for (final RequestFuture<? extends T> input : inputs) {
+            input.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable inputError = input.getError();
+                    if (inputError != null) {
+                        all.fail(inputError);
+                    } else if (remaining.decrementAndGet() == 0) {
+                        List<T> results = new ArrayList<T>(inputs.size());
+                        for (RequestFuture<? extends T> done : inputs) {
+                            results.add(done.getResult());
+                        }
+                        all.complete(results);
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Returns future which completes with result of the first given future to succeed. It fails
+     * only once all of them fail, with error of the last one. Remaining futures are left running,
+     * cancel them if their results are not needed. Cancelling returned future cancels all given
+     * futures.
+     *
+     * @param futures futures to wait for, must not be empty
+     * @param <T>     type of the results
+     * @return future of the first result
+     */
+    public static <T> RequestFuture<T> anyOf(Collection<? extends RequestFuture<? extends T>> futures) {
+        Utils.asserts(!futures.isEmpty(), "futures must not be empty");
+        final List<RequestFuture<? extends T>> inputs = new ArrayList<RequestFuture<? extends T>>(futures);
+        final RequestFuture<T> any = new RequestFuture<T>() {
+            @Override
+            protected void onCancelled(boolean mayInterruptIfRunning) {
+                for (RequestFuture<? extends T> input : inputs) {
+                    input.cancel(mayInterruptIfRunning);
+                }
+            }
+        };
+        final AtomicInteger remaining = new AtomicInteger(inputs.size());
+        for (final RequestFuture<? extends T> input : inputs) {
+            input.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable inputError = input.getError();
+                    if (inputError == null) {
+                        any.complete(input.getResult());
+                    } else if (remaining.decrementAndGet() == 0) {
+                        any.fail(inputError);
+                    }
+                }
+            });
+        }
+        return any;
+    }
+
+    /**
+     * Completes this future with given result, if it is not completed yet
+     *
+     * @param result result of the future
+     * @return true if the future got completed by this call
+     */
+    public boolean complete(T result) {
+        return finish(SUCCEEDED, result, null);
+    }
+
+    /**
+     * Fails this future with given error, if it is not completed yet
+     *
+     * @param error cause of the failure, must not be null
+     * @return true if the future got completed by this call
+     */
+    public boolean fail(Throwable error) {
+        return finish(FAILED, null, Utils.notNull(error, "error"));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(CANCELLED, null, new CancellationException())) {
+            return false;
+        }
+        onCancelled(mayInterruptIfRunning);
+        return true;
+    }
+
+    /**
+     * Called once this future got cancelled, to cancel work producing its result
+     *
+     * @param mayInterruptIfRunning whether threads producing the result may be interrupted
+     */
+    protected void onCancelled(boolean mayInterruptIfRunning) {
+        // default action is to do nothing...
+    }
+
+    private boolean finish(int newState, T newResult, Throwable newError) {
+        List<Runnable> toNotify;
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = newState;
+            result = newResult;
+            error = newError;
+            notifyAll();
+            toNotify = new ArrayList<Runnable>(listeners);
+            listeners.clear();
+        }
+        for (Runnable listener : toNotify) {
+            runListener(listener);
+        }
+        return true;
+    }
+
+    private static void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Throwable t) {
+            AsyncHttpClient.log.e(LOG_TAG, "Listener thrown an error", t);
+        }
+    }
+
+    /**
+     * Registers listener, which is run on the completing thread once this future completes in
+     * any way, or right away on the calling thread if it is already completed
+     *
+     * @param listener listener to run, must not be null
+     * @return this RequestFuture to allow fluid syntax
+     */
+    public RequestFuture<T> addListener(Runnable listener) {
+        Utils.notNull(listener, "listener");
+        synchronized (this) {
+            if (state == PENDING) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        runListener(listener);
+        return this;
+    }
+
+    /**
+     * Registers listener, which is run by given executor once this future completes in any way
+     *
+     * @param listener listener to run, must not be null
+     * @param executor executor to run the listener, must not be null
+     * @return this RequestFuture to allow fluid syntax
+     */
+    public RequestFuture<T> addListener(final Runnable listener, final Executor executor) {
+        Utils.notNull(listener, "listener");
+        Utils.notNull(executor, "executor");
+        return addListener(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        });
+    }
+
+    /**
+     * Returns future of the result transformed by given function, failures and cancellation are
+     * passed through
+     *
+     * @param function transformation of the result, run on the completing thread
+     * @param <U>      type of the transformed result
+     * @return future of the transformed result
+     */
+    public <U> RequestFuture<U> thenApply(final Function<? super T, ? extends U> function) {
+        Utils.notNull(function, "function");
+        final RequestFuture<U> next = new ChainedFuture<U>(this);
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                Throwable _error = getError();
+                if (_error != null) {
+                    next.fail(_error);
+                    return;
+                }
+                try {
+                    next.complete(function.apply(getResult()));
+                } catch (Throwable t) {
+                    next.fail(t);
+                }
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Returns future of the result of another asynchronous operation started with the result of
+     * this future, such as a follow-up request. Failures and cancellation are passed through.
+     *
+     * @param function starts the next operation with the result, run on the completing thread
+     * @param <U>      type of the next result
+     * @return future of the next result
+     */
+    public <U> RequestFuture<U> thenCompose(final Function<? super T, ? extends RequestFuture<U>> function) {
+        Utils.notNull(function, "function");
+        final ChainedFuture<U> next = new ChainedFuture<U>(this);
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                Throwable _error = getError();
+                if (_error != null) {
+                    next.fail(_error);
+                    return;
+                }
+                final RequestFuture<U> composed;
+                try {
+                    composed = Utils.notNull(function.apply(getResult()), "composed future");
+                } catch (Throwable t) {
+                    next.fail(t);
+                    return;
+                }
+                next.setSource(composed);
+                composed.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        Throwable composedError = composed.getError();
+                        if (composedError != null) {
+                            next.fail(composedError);
+                        } else {
+                            next.complete(composed.getResult());
+                        }
+                    }
+                });
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Returns future which fails with {@link TimeoutException} if this future doesn't complete
+     * in given time, in which case this future gets cancelled. No thread is blocked while
+     * waiting.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return future of the same result, limited by the timeout
+     */
+    public RequestFuture<T> withTimeout(long timeout, TimeUnit unit) {
+        final RequestFuture<T> limited = new ChainedFuture<T>(this);
+        final ScheduledFuture<?> timer = SharedTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (limited.fail(new TimeoutException("Timed out waiting for result"))) {
+                    cancel(true);
+                }
+            }
+        }, timeout, unit);
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                SharedTimer.cancel(timer);
+                Throwable _error = getError();
+                if (_error != null) {
+                    limited.fail(_error);
+                } else {
+                    limited.complete(getResult());
+                }
+            }
+        });
+        return limited;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * Blocks until the result is available, must not be called on the thread which completes
+     * the future, such as the main thread for handlers delivering callbacks on it
+     */
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (state == PENDING) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (state == PENDING) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return report();
+    }
+
+    private T report() throws ExecutionException {
+        if (state == CANCELLED) {
+            throw new CancellationException("Future was cancelled");
+        }
+        if (state == FAILED) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    private synchronized T getResult() {
+        return result;
+    }
+
+    /**
+     * Returns error of completed future, CancellationException if it was cancelled
+     */
+    private synchronized Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Transformation of a result
+     *
+     * @param <A> type of the input
+     * @param <B> type of the output
+     */
+    public interface Function<A, B> {
+        B apply(A input) throws Exception;
+    }
+
+    /**
+     * Future derived from another future, cancelling it cancels the work it depends on
+     */
+    private static class ChainedFuture<U> extends RequestFuture<U> {
+        private volatile Future<?> source;
+
+        ChainedFuture(Future<?> source) {
+            this.source = source;
+        }
+
+        void setSource(Future<?> source) {
+            this.source = source;
+            if (isCancelled()) {
+                source.cancel(true);
+            }
+        }
+
+        @Override
+        protected void onCancelled(boolean mayInterruptIfRunning) {
+            source.cancel(mayInterruptIfRunning);
+        }
+    }
+}
@@ -27,6 +27,8 @@ import java.lang.ref.WeakReference;
  */
 public class RequestHandle {
     private final WeakReference<AsyncHttpRequest> request;
+    private volatile RequestRegistry registry;
+    private volatile RequestFuture<RequestResult> future;
 
     public RequestHandle(AsyncHttpRequest request) {
         this.request = new WeakReference<AsyncHttpRequest>(request);
@@ -114,8 +116,55 @@ public class RequestHandle {
      */
     public RequestHandle setTag(Object tag) {
         AsyncHttpRequest _request = request.get();
-        if (_request != null)
+        if (_request != null) {
+            Object oldTag = _request.getTag();
             _request.setRequestTag(tag);
+            RequestRegistry _registry = registry;
+            if (_registry != null)
+                _registry.onTagChanged(this, oldTag, tag);
+        }
         return this;
     }
-}
\ No newline at end of file
+
+    void setRegistry(RequestRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Will return scheduling priority of underlying AsyncHttpRequest
+     *
+     * @return RequestPriority, null if request is already GCed
+     */
+    public RequestPriority getPriority() {
+        AsyncHttpRequest _request = request.get();
+        return _request == null ? null : _request.getPriority();
+    }
+
+    /**
+     * Will set scheduling priority of underlying AsyncHttpRequest, request which is still waiting
+     * for free worker thread is moved in the queue accordingly
+     *
+     * @param priority new priority, must not be null
+     * @return this RequestHandle to allow fluid syntax
+     */
+    public RequestHandle setPriority(RequestPriority priority) {
+        AsyncHttpRequest _request = request.get();
+        if (_request != null)
+            _request.setPriority(priority);
+        return this;
+    }
+
+    /**
+     * Returns future of the request result, available for requests sent with {@link
+     * FutureResponseHandler}. Unlike the request itself, the future is not weakly referenced.
+     *
+     * @return future of the request result, null if the request was sent with other handler
+     */
+    public RequestFuture<RequestResult> getFuture() {
+        return future;
+    }
+
+    void setFuture(RequestFuture<RequestResult> future) {
+        this.future = future;
+    }
+}
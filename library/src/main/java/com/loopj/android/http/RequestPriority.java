@@ -0,0 +1,42 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+/**
+ * Scheduling priority of a request waiting for a free worker thread. Requests of higher priority
+ * overtake queued requests of lower priority, requests of the same priority run in the order they
+ * were submitted.
+ *
+ * @see RequestScheduler
+ * @see RequestHandle#setPriority(RequestPriority)
+ */
+public enum RequestPriority {
+    /**
+     * User-facing request, which should run as soon as any worker thread is available
+     */
+    IMMEDIATE,
+    /**
+     * Default priority of every request
+     */
+    NORMAL,
+    /**
+     * Prefetch or other speculative work, runs only when nothing more important is waiting
+     */
+    BACKGROUND
+}
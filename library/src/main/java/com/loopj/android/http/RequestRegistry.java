@@ -0,0 +1,217 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.content.Context;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free registry of outstanding requests, indexed by the Android Context which initiated them
+ * and by their TAG. Requests remove themselves once they complete, so registering a request and
+ * cancelling requests of a Context or TAG costs time proportional only to the number of requests
+ * affected, not to the number of all outstanding requests. <p>&nbsp;</p> Contexts are referenced
+ * weakly, TAGs are referenced only while their requests are outstanding.
+ */
+class RequestRegistry {
+
+    private final ConcurrentMap<ContextKey, HandleSet> byContext = new ConcurrentHashMap<ContextKey, HandleSet>();
+    private final ConcurrentMap<Object, HandleSet> byTag = new ConcurrentHashMap<Object, HandleSet>();
+    private final ReferenceQueue<Context> staleContexts = new ReferenceQueue<Context>();
+
+    /**
+     * Registers the request, which will be unregistered automatically once it completes
+     *
+     * @param context context which initiated the request, may be null
+     * @param handle  handle of the request
+     * @param request the request itself
+     */
+    void register(Context context, final RequestHandle handle, AsyncHttpRequest request) {
+        purgeStaleContexts();
+        final ContextKey key = context == null ? null : new ContextKey(context, staleContexts);
+        if (key != null) {
+            add(byContext, key, handle);
+        }
+        Object tag = handle.getTag();
+        if (tag != null) {
+            add(byTag, tag, handle);
+        }
+        handle.setRegistry(this);
+        request.addCompletionListener(new AsyncHttpRequest.CompletionListener() {
+            @Override
+            public void onRequestCompleted(AsyncHttpRequest request) {
+                unregister(key, handle);
+            }
+        });
+    }
+
+    /**
+     * Moves the handle in TAG index, called when TAG of outstanding request changes
+     *
+     * @param handle handle of the request
+     * @param oldTag previous TAG, may be null
+     * @param newTag current TAG, may be null
+     */
+    void onTagChanged(RequestHandle handle, Object oldTag, Object newTag) {
+        if (oldTag == newTag) {
+            return;
+        }
+        if (oldTag != null) {
+            remove(byTag, oldTag, handle);
+        }
+        if (newTag != null && !handle.isFinished()) {
+            add(byTag, newTag, handle);
+        }
+    }
+
+    /**
+     * Removes all handles of given Context from the registry
+     *
+     * @param context context which initiated the requests
+     * @return handles of outstanding requests of the context, may be empty
+     */
+    Collection<RequestHandle> removeContext(Context context) {
+        HandleSet set = byContext.remove(new ContextKey(context, null));
+        return set == null ? Collections.<RequestHandle>emptyList() : set.handles;
+    }
+
+    /**
+     * Removes all handles which were registered with non-null Context from the registry
+     *
+     * @return handles of outstanding requests initiated by any Context
+     */
+    Collection<RequestHandle> removeAllContexts() {
+        List<RequestHandle> handles = new ArrayList<RequestHandle>();
+        for (ContextKey key : byContext.keySet()) {
+            HandleSet set = byContext.remove(key);
+            if (set != null) {
+                handles.addAll(set.handles);
+            }
+        }
+        return handles;
+    }
+
+    /**
+     * Returns handles of outstanding requests with given TAG
+     *
+     * @param tag TAG to look up, must not be null
+     * @return handles of matching requests, may be empty
+     */
+    Collection<RequestHandle> getByTag(Object tag) {
+        HandleSet set = byTag.get(tag);
+        return set == null ? Collections.<RequestHandle>emptyList() : set.handles;
+    }
+
+    private void unregister(ContextKey key, RequestHandle handle) {
+        if (key != null) {
+            remove(byContext, key, handle);
+        }
+        Object tag = handle.getTag();
+        if (tag != null) {
+            remove(byTag, tag, handle);
+        }
+    }
+
+    private void purgeStaleContexts() {
+        Reference<? extends Context> stale;
+        while ((stale = staleContexts.poll()) != null) {
+            byContext.remove(stale);
+        }
+    }
+
+    private static <K> void add(ConcurrentMap<K, HandleSet> map, K key, RequestHandle handle) {
+        while (true) {
+            HandleSet set = map.get(key);
+            if (set == null) {
+                HandleSet created = new HandleSet();
+                set = map.putIfAbsent(key, created);
+                if (set == null) {
+                    set = created;
+                }
+            }
+            int count = set.count.get();
+            if (count < 0) {
+                // set is being dropped because it got empty, help dropping it and retry
+                map.remove(key, set);
+            } else if (set.count.compareAndSet(count, count + 1)) {
+                if (!set.handles.add(handle)) {
+                    set.count.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    private static <K> void remove(ConcurrentMap<K, HandleSet> map, K key, RequestHandle handle) {
+        HandleSet set = map.get(key);
+        if (set != null && set.handles.remove(handle)) {
+            if (set.count.decrementAndGet() == 0 && set.count.compareAndSet(0, -1)) {
+                map.remove(key, set);
+            }
+        }
+    }
+
+    /**
+     * Concurrent set of handles, count is the number of handles added, or -1 once the set became
+     * empty and is no longer accepting handles
+     */
+    private static class HandleSet {
+        final Set<RequestHandle> handles = Collections.newSetFromMap(new ConcurrentHashMap<RequestHandle, Boolean>());
+        final AtomicInteger count = new AtomicInteger();
+    }
+
+    /**
+     * Weak reference to Context, equal to other keys referencing the same Context instance
+     */
+    private static class ContextKey extends WeakReference<Context> {
+        private final int hashCode;
+
+        ContextKey(Context context, ReferenceQueue<Context> queue) {
+            super(context, queue);
+            this.hashCode = System.identityHashCode(context);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContextKey)) {
+                return false;
+            }
+            Context context = get();
+            return context != null && context == ((ContextKey) o).get();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import cz.msebera.android.httpclient.Header;
+
+/**
+ * Result of a request, as delivered by {@link RequestFuture} of {@link FutureResponseHandler}
+ */
+public class RequestResult {
+    private final int statusCode;
+    private final Header[] headers;
+    private final byte[] body;
+
+    public RequestResult(int statusCode, Header[] headers, byte[] body) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Returns status code of the response
+     *
+     * @return HTTP status code, 0 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns headers of the response
+     *
+     * @return response headers, can be null
+     */
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns first header of the response with given name
+     *
+     * @param name header name, case insensitive
+     * @return header or null if the response doesn't contain it
+     */
+    public Header getFirstHeader(String name) {
+        if (headers != null) {
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase(name)) {
+                    return header;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns body of the response
+     *
+     * @return response body, can be null
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
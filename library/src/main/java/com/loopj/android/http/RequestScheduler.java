@@ -0,0 +1,195 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread pool used by {@link AsyncHttpClient} by default. Unlike a cached thread pool it
+ * never runs more than a fixed number of worker threads, requests exceeding that number wait in a
+ * queue ordered by {@link RequestPriority}, so user-facing requests can overtake queued prefetches.
+ * <p>&nbsp;</p>
+ * Runnables which are not {@link AsyncHttpRequest} instances (eg. cancellation submitted by {@link
+ * AsyncHttpClient#cancelRequests(android.content.Context, boolean)}) are treated as {@link
+ * RequestPriority#IMMEDIATE}.
+ */
+public class RequestScheduler extends ThreadPoolExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates new scheduler with given maximum number of worker threads
+     *
+     * @param workerCount maximum number of worker threads, must be at least 1
+     */
+    public RequestScheduler(int workerCount) {
+        super(workerCount, workerCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(11, new TaskComparator()), new WorkerThreadFactory());
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns number of worker threads suitable for given connection limit. At most maxConnections
+     * workers can hold a connection at once, one extra worker per CPU core covers requests busy
+     * with work that doesn't need a connection (pre-processing, retry delays, parsing on pool
+     * thread) without letting them queue up behind network bound requests.
+     *
+     * @param maxConnections maximum parallel connections of the client
+     * @return number of worker threads
+     */
+    public static int getDefaultWorkerCount(int maxConnections) {
+        return Math.max(1, maxConnections) + Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Changes maximum number of worker threads, already running requests are not affected
+     *
+     * @param workerCount maximum number of worker threads, must be at least 1
+     */
+    public void setWorkerCount(int workerCount) {
+        Utils.asserts(workerCount > 0, "workerCount must be at least 1");
+        if (workerCount > getMaximumPoolSize()) {
+            setMaximumPoolSize(workerCount);
+            setCorePoolSize(workerCount);
+        } else {
+            setCorePoolSize(workerCount);
+            setMaximumPoolSize(workerCount);
+        }
+    }
+
+    /**
+     * Returns number of requests waiting for a free worker thread
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * Returns number of requests of given priority waiting for a free worker thread
+     *
+     * @param priority priority to count queued requests of
+     * @return queue depth for given priority
+     */
+    public int getQueueDepth(RequestPriority priority) {
+        int depth = 0;
+        for (Runnable runnable : getQueue()) {
+            if (runnable instanceof PrioritizedTask && ((PrioritizedTask<?>) runnable).priority == priority) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Moves already queued request according to its current {@link AsyncHttpRequest#getPriority()},
+     * does nothing if the request is not waiting in the queue anymore
+     *
+     * @param request request which priority has changed
+     */
+    void reprioritize(AsyncHttpRequest request) {
+        for (Runnable runnable : getQueue()) {
+            if (runnable instanceof PrioritizedTask && ((PrioritizedTask<?>) runnable).runnable == request) {
+                PrioritizedTask<?> task = (PrioritizedTask<?>) runnable;
+                if (getQueue().remove(task)) {
+                    task.priority = request.getPriority();
+                    getQueue().offer(task);
+                    prestartCoreThread();
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof PrioritizedTask) {
+            super.execute(command);
+        } else {
+            super.execute(newTaskFor(command, null));
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        RequestPriority priority = runnable instanceof AsyncHttpRequest
+                ? ((AsyncHttpRequest) runnable).getPriority()
+                : RequestPriority.IMMEDIATE;
+        return new PrioritizedTask<T>(runnable, value, priority, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PrioritizedTask<T>(callable, RequestPriority.IMMEDIATE, sequence.getAndIncrement());
+    }
+
+    private static class PrioritizedTask<T> extends FutureTask<T> {
+        final Runnable runnable;
+        final long sequence;
+        volatile RequestPriority priority;
+
+        PrioritizedTask(Runnable runnable, T value, RequestPriority priority, long sequence) {
+            super(runnable, value);
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        PrioritizedTask(Callable<T> callable, RequestPriority priority, long sequence) {
+            super(callable);
+            this.runnable = null;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class TaskComparator implements Comparator<Runnable> {
+        @Override
+        public int compare(Runnable lhs, Runnable rhs) {
+            PrioritizedTask<?> left = (PrioritizedTask<?>) lhs;
+            PrioritizedTask<?> right = (PrioritizedTask<?>) rhs;
+            int byPriority = left.priority.compareTo(right.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return left.sequence < right.sequence ? -1 : (left.sequence == right.sequence ? 0 : 1);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "AsyncHttpClient #" + count.incrementAndGet());
+        }
+    }
+}
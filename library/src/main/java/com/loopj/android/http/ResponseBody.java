@@ -0,0 +1,451 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response body held in chunks borrowed from {@link BufferPool}, delivered by {@link
+ * AsyncHttpResponseHandler#onSuccessBody(int, cz.msebera.android.httpclient.Header[],
+ * ResponseBody)} when pooled bodies are enabled. Reading the body never copies it as a whole
+ * except for {@link #toByteArray()}, decoders can consume its chunks directly through {@link
+ * #asByteBuffers()}, {@link #getInputStream()} or {@link #decode(String)}. <p>&nbsp;</p> Once
+ * the body grows over its spill threshold, it is moved to a temporary file and the rest of it is
+ * written there, see {@link AsyncHttpResponseHandler#setSpillThreshold(long)}. All methods work
+ * the same for bodies held in memory and in a file. <p>&nbsp;</p> The body must be released
+ * once it is no longer needed, so its chunks can be reused by other responses and its file is
+ * deleted, and must not be used afterwards. Body is not thread-safe.
+ */
+public class ResponseBody {
+
+    static final int CHUNK_SIZE = 16 * 1024;
+    private static final String LOG_TAG = "ResponseBody";
+    // longest byte sequence of a single character in any supported charset, with some reserve
+    private static final int MAX_SPLIT_CHARACTER = 16;
+
+    private final BufferPool pool;
+    private final long spillThreshold;
+    private final File spillDirectory;
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private int tailLength;
+    private long length;
+    private boolean released;
+    // once spilled, file holds the body except for the single chunk in chunks
+    private File spillFile;
+    private OutputStream spillStream;
+    private long spilledLength;
+
+    ResponseBody(BufferPool pool) {
+        this(pool, Long.MAX_VALUE, null);
+    }
+
+    ResponseBody(BufferPool pool, long spillThreshold, File spillDirectory) {
+        this.pool = Utils.notNull(pool, "pool");
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    private byte[] getWritableTail() throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        if (!chunks.isEmpty() && tailLength < chunks.get(chunks.size() - 1).length) {
+            return chunks.get(chunks.size() - 1);
+        }
+        if (spillFile == null && length >= spillThreshold) {
+            spill();
+        }
+        if (spillFile != null && !chunks.isEmpty()) {
+            // reuse the single chunk of spilled body once it is written to the file
+            writeTailToFile();
+        } else {
+            chunks.add(pool.acquire(CHUNK_SIZE));
+            tailLength = 0;
+        }
+        return chunks.get(chunks.size() - 1);
+    }
+
+    /**
+     * Moves chunks held in memory to a temporary file, keeping only one of them for writing
+     */
+    private void spill() throws IOException {
+        spillFile = File.createTempFile("response", ".tmp", spillDirectory);
+        spillStream = new FileOutputStream(spillFile);
+        AsyncHttpClient.log.d(LOG_TAG, "Body exceeded " + spillThreshold + " bytes, spilling to " + spillFile);
+        for (int i = 0; i < chunks.size(); i++) {
+            spillStream.write(chunks.get(i), 0, getChunkLength(i));
+        }
+        spilledLength = length;
+        while (chunks.size() > 1) {
+            pool.release(chunks.remove(chunks.size() - 1));
+        }
+        tailLength = 0;
+    }
+
+    private void writeTailToFile() throws IOException {
+        if (spillStream == null) {
+            spillStream = new FileOutputStream(spillFile, true);
+        }
+        spillStream.write(chunks.get(0), 0, tailLength);
+        spilledLength += tailLength;
+        tailLength = 0;
+    }
+
+    /**
+     * Writes the whole spilled body to its file, so it can be read from there
+     */
+    private void flushSpill() throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        if (spillFile == null) {
+            return;
+        }
+        if (tailLength > 0) {
+            writeTailToFile();
+        }
+        if (spillStream != null) {
+            spillStream.close();
+            spillStream = null;
+        }
+    }
+
+    /**
+     * Reads next bytes of the stream into the body, at most one chunk at a time
+     *
+     * @param instream stream to read from
+     * @return number of bytes read, -1 at the end of the stream
+     * @throws IOException if reading from the stream failed
+     */
+    int readFrom(InputStream instream) throws IOException {
+        byte[] tail = getWritableTail();
+        int l = instream.read(tail, tailLength, tail.length - tailLength);
+        if (l > 0) {
+            tailLength += l;
+            length += l;
+        }
+        return l;
+    }
+
+    /**
+     * Appends bytes to the body
+     *
+     * @param buffer source of the bytes
+     * @param offset offset of the first byte
+     * @param count  number of bytes
+     * @throws IOException if the body is spilled and writing to its file failed
+     */
+    void append(byte[] buffer, int offset, int count) throws IOException {
+        while (count > 0) {
+            byte[] tail = getWritableTail();
+            int l = Math.min(count, tail.length - tailLength);
+            System.arraycopy(buffer, offset, tail, tailLength, l);
+            tailLength += l;
+            length += l;
+            offset += l;
+            count -= l;
+        }
+    }
+
+    /**
+     * Returns size of the body
+     *
+     * @return number of bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns whether the body is held in memory, or was spilled to a file
+     *
+     * @return boolean
+     */
+    public boolean isInMemory() {
+        return spillFile == null;
+    }
+
+    /**
+     * Returns copy of the whole body
+     *
+     * @return body as byte array
+     * @throws IOException           if the body is spilled and reading its file failed
+     * @throws IllegalStateException if the body is too large for a single array
+     */
+    public byte[] toByteArray() throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        Utils.asserts(length <= Integer.MAX_VALUE, "HTTP entity too large to be buffered in memory");
+        byte[] result = new byte[(int) length];
+        if (spillFile != null) {
+            flushSpill();
+            DataInputStream instream = new DataInputStream(new FileInputStream(spillFile));
+            try {
+                instream.readFully(result);
+            } finally {
+                AsyncHttpClient.silentCloseInputStream(instream);
+            }
+            return result;
+        }
+        int offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            int l = getChunkLength(i);
+            System.arraycopy(chunks.get(i), 0, result, offset, l);
+            offset += l;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the whole body to the stream, without copying it
+     *
+     * @param outstream stream to write to
+     * @throws IOException if writing to the stream failed
+     */
+    public void writeTo(OutputStream outstream) throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        if (spillFile != null) {
+            InputStream instream = getInputStream();
+            byte[] buffer = pool.acquire(CHUNK_SIZE);
+            try {
+                int l;
+                while ((l = instream.read(buffer)) != -1) {
+                    outstream.write(buffer, 0, l);
+                }
+            } finally {
+                pool.release(buffer);
+                AsyncHttpClient.silentCloseInputStream(instream);
+            }
+            return;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            outstream.write(chunks.get(i), 0, getChunkLength(i));
+        }
+    }
+
+    /**
+     * Returns stream reading the body, without copying it. Stream of spilled body reads its file
+     * and has to be closed.
+     *
+     * @return stream over the body, valid until the body is released
+     * @throws IOException if the body is spilled and its file cannot be opened
+     */
+    public InputStream getInputStream() throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        if (spillFile != null) {
+            flushSpill();
+            return new BufferedInputStream(new FileInputStream(spillFile), CHUNK_SIZE);
+        }
+        return new ChunkInputStream();
+    }
+
+    /**
+     * Returns read-only views of the chunks holding the body, in order, without copying them.
+     * Spilled body is returned as read-only mappings of its file.
+     *
+     * @return list of buffers, valid until the body is released
+     * @throws IOException if the body is spilled and its file cannot be mapped
+     */
+    public List<ByteBuffer> asByteBuffers() throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        if (spillFile != null) {
+            return mapSpillFile();
+        }
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            buffers.add(ByteBuffer.wrap(chunks.get(i), 0, getChunkLength(i)).asReadOnlyBuffer());
+        }
+        return Collections.unmodifiableList(buffers);
+    }
+
+    private List<ByteBuffer> mapSpillFile() throws IOException {
+        flushSpill();
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // mappings stay valid after the channel is closed
+            for (long position = 0; position < spilledLength; position += Integer.MAX_VALUE) {
+                long size = Math.min(Integer.MAX_VALUE, spilledLength - position);
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+            }
+        } finally {
+            file.close();
+        }
+        return Collections.unmodifiableList(buffers);
+    }
+
+    /**
+     * Decodes the body as text directly from its chunks, without assembling it in a byte array.
+     * Malformed input is replaced, as with {@link String#String(byte[], String)}, and leading UTF-8
+     * byte order mark is removed.
+     *
+     * @param charset name of charset of the body
+     * @return decoded body
+     * @throws UnsupportedEncodingException if the charset is not supported
+     * @throws IOException                  if the body is spilled and reading its file failed
+     */
+    public String decode(String charset) throws IOException {
+        Utils.asserts(!released, "ResponseBody was already released");
+        CharsetDecoder decoder;
+        try {
+            decoder = Charset.forName(charset).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(charset);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+        CharBuffer out = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 16, (long) (length * decoder.averageCharsPerByte())) + 16);
+        // bytes of a character split between two chunks
+        ByteBuffer split = ByteBuffer.allocate(MAX_SPLIT_CHARACTER);
+        split.flip();
+        for (ByteBuffer in : asByteBuffers()) {
+            while (split.hasRemaining() && in.hasRemaining()) {
+                split.compact();
+                split.put(in.get());
+                split.flip();
+                out = decode(decoder, split, out, false);
+            }
+            out = decode(decoder, in, out, false);
+            if (in.hasRemaining()) {
+                split.compact();
+                split.put(in);
+                split.flip();
+            }
+        }
+        out = decode(decoder, split, out, true);
+        while (decoder.flush(out).isOverflow()) {
+            out = grow(out);
+        }
+        out.flip();
+        if (out.hasRemaining() && out.get(0) == AsyncHttpResponseHandler.UTF8_BOM.charAt(0)) {
+            out.position(1);
+        }
+        return out.toString();
+    }
+
+    private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, boolean endOfInput) {
+        while (decoder.decode(in, out, endOfInput).isOverflow()) {
+            out = grow(out);
+        }
+        return out;
+    }
+
+    private static CharBuffer grow(CharBuffer out) {
+        CharBuffer larger = CharBuffer.allocate(out.capacity() * 2 + 16);
+        out.flip();
+        larger.put(out);
+        return larger;
+    }
+
+    int getChunkCount() {
+        return chunks.size();
+    }
+
+    byte[] getChunk(int index) {
+        return chunks.get(index);
+    }
+
+    int getChunkLength(int index) {
+        return index == chunks.size() - 1 ? tailLength : chunks.get(index).length;
+    }
+
+    /**
+     * Gives chunks of the body back to the pool, the body must not be used afterwards. Calling it
+     * repeatedly has no effect.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        if (spillFile != null) {
+            if (spillStream != null) {
+                try {
+                    spillStream.close();
+                } catch (IOException e) {
+                    AsyncHttpClient.log.w(LOG_TAG, "Cannot close spill file", e);
+                }
+                spillStream = null;
+            }
+            if (!spillFile.delete()) {
+                AsyncHttpClient.log.w(LOG_TAG, "Cannot delete spill file " + spillFile);
+            }
+        }
+    }
+
+    private class ChunkInputStream extends InputStream {
+        private int chunk;
+        private int position;
+
+        private boolean hasRemaining() {
+            while (chunk < chunks.size() && position == getChunkLength(chunk)) {
+                chunk++;
+                position = 0;
+            }
+            return chunk < chunks.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (released) {
+                throw new IOException("ResponseBody was already released");
+            }
+            return hasRemaining() ? chunks.get(chunk)[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (released) {
+                throw new IOException("ResponseBody was already released");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (!hasRemaining()) {
+                return -1;
+            }
+            int l = Math.min(count, getChunkLength(chunk) - position);
+            System.arraycopy(chunks.get(chunk), position, buffer, offset, l);
+            position += l;
+            return l;
+        }
+    }
+}
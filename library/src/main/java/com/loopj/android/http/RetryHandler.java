@@ -23,100 +23,97 @@
 
 package com.loopj.android.http;
 
-import android.os.SystemClock;
-
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.HashSet;
-
-import javax.net.ssl.SSLException;
+import java.util.Random;
 
-import cz.msebera.android.httpclient.NoHttpResponseException;
 import cz.msebera.android.httpclient.client.HttpRequestRetryHandler;
 import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
 import cz.msebera.android.httpclient.protocol.ExecutionContext;
 import cz.msebera.android.httpclient.protocol.HttpContext;
 
+/**
+ * Retry limits of {@link AsyncHttpClient}, decides how many times a request may be retried and
+ * how long to wait before each retry, whether a failure is retryable at all is decided by {@link
+ * RetryPolicy}. Delays grow exponentially from the base delay up to the maximum delay and are
+ * randomized over the whole range (full jitter), so retries of many clients don't arrive at a
+ * failing host in waves. <p>&nbsp;</p> Waiting is done by {@link AsyncHttpRequest}, which gives
+ * its worker thread back and is re-submitted once the delay elapses. Retries inside HttpClient
+ * itself are therefore disabled, {@link #retryRequest(IOException, int, HttpContext)} always
+ * returns false.
+ */
 class RetryHandler implements HttpRequestRetryHandler {
-    private final static HashSet<Class<?>> exceptionWhitelist = new HashSet<Class<?>>();
-    private final static HashSet<Class<?>> exceptionBlacklist = new HashSet<Class<?>>();
-
-    static {
-        // Retry if the server dropped connection on us
-        exceptionWhitelist.add(NoHttpResponseException.class);
-        // retry-this, since it may happens as part of a Wi-Fi to 3G failover
-        exceptionWhitelist.add(UnknownHostException.class);
-        // retry-this, since it may happens as part of a Wi-Fi to 3G failover
-        exceptionWhitelist.add(SocketException.class);
-
-        // never retry timeouts
-        exceptionBlacklist.add(InterruptedIOException.class);
-        // never retry SSL handshake failures
-        exceptionBlacklist.add(SSLException.class);
-    }
+    private final static RetryPolicy defaultPolicy = new RetryPolicy();
+    private final static Random jitter = new Random();
 
     private final int maxRetries;
     private final int retrySleepTimeMS;
+    private final int maxRetrySleepTimeMS;
 
     public RetryHandler(int maxRetries, int retrySleepTimeMS) {
-        this.maxRetries = maxRetries;
-        this.retrySleepTimeMS = retrySleepTimeMS;
+        this(maxRetries, retrySleepTimeMS, Math.max(retrySleepTimeMS, AsyncHttpClient.DEFAULT_MAX_RETRY_SLEEP_TIME_MILLIS));
     }
 
-    static void addClassToWhitelist(Class<?> cls) {
-        exceptionWhitelist.add(cls);
+    public RetryHandler(int maxRetries, int retrySleepTimeMS, int maxRetrySleepTimeMS) {
+        Utils.asserts(maxRetrySleepTimeMS >= retrySleepTimeMS, "maxRetrySleepTimeMS must not be lower than retrySleepTimeMS");
+        this.maxRetries = maxRetries;
+        this.retrySleepTimeMS = retrySleepTimeMS;
+        this.maxRetrySleepTimeMS = maxRetrySleepTimeMS;
     }
 
-    static void addClassToBlacklist(Class<?> cls) {
-        exceptionBlacklist.add(cls);
+    int getMaxRetries() {
+        return maxRetries;
     }
 
     @Override
     public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
-        boolean retry = true;
-
-        Boolean b = (Boolean) context.getAttribute(ExecutionContext.HTTP_REQ_SENT);
-        boolean sent = (b != null && b);
+        // retries are scheduled by AsyncHttpRequest, see shouldRetry
+        return false;
+    }
 
+    /**
+     * Decides whether failed request should be retried
+     *
+     * @param exception      failure of the last execution
+     * @param executionCount number of executions so far
+     * @param request        failed request
+     * @param context        context of the request execution
+     * @param policy         retry rules of the client, null to use the default rules
+     * @return true if the request should be retried
+     */
+    boolean shouldRetry(IOException exception, int executionCount, HttpUriRequest request, HttpContext context, RetryPolicy policy) {
         if (executionCount > maxRetries) {
             // Do not retry if over max retry count
-            retry = false;
-        } else if (isInList(exceptionWhitelist, exception)) {
-            // immediately retry if error is whitelisted
-            retry = true;
-        } else if (isInList(exceptionBlacklist, exception)) {
-            // immediately cancel retry if the error is blacklisted
-            retry = false;
-        } else if (!sent) {
-            // for most other errors, retry only if request hasn't been fully sent yet
-            retry = true;
+            return false;
         }
 
-        if (retry) {
-            // resend all idempotent requests
-            HttpUriRequest currentReq = (HttpUriRequest) context.getAttribute(ExecutionContext.HTTP_REQUEST);
-            if (currentReq == null) {
-                return false;
-            }
-        }
+        Boolean b = (Boolean) context.getAttribute(ExecutionContext.HTTP_REQ_SENT);
+        boolean sent = (b != null && b);
 
-        if (retry) {
-            SystemClock.sleep(retrySleepTimeMS);
-        } else {
+        boolean retry = (policy == null ? defaultPolicy : policy).isRetryable(exception, request, sent);
+        if (!retry) {
             exception.printStackTrace();
         }
-
         return retry;
     }
 
-    protected boolean isInList(HashSet<Class<?>> list, Throwable error) {
-        for (Class<?> aList : list) {
-            if (aList.isInstance(error)) {
-                return true;
-            }
+    /**
+     * Returns delay before given retry, chosen randomly between zero and the base delay doubled
+     * for every previous retry, capped by the maximum delay
+     *
+     * @param executionCount number of executions so far, 1 for the first retry
+     * @return delay in milliseconds
+     */
+    long getRetryDelay(int executionCount) {
+        long ceiling = retrySleepTimeMS;
+        for (int i = 1; i < executionCount && ceiling < maxRetrySleepTimeMS; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxRetrySleepTimeMS);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        synchronized (jitter) {
+            return (long) (jitter.nextDouble() * (ceiling + 1));
         }
-        return false;
     }
 }
@@ -0,0 +1,290 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLException;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpEntityEnclosingRequest;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.NoHttpResponseException;
+import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
+import cz.msebera.android.httpclient.client.utils.DateUtils;
+
+/**
+ * Retry rules of {@link AsyncHttpClient}, kept for the whole lifetime of the client. <p>&nbsp;</p>
+ * Failed executions are classified by exception class, allowed exceptions are retried and
+ * blocked ones are not. Requests with idempotent methods are retried on any exception which is
+ * not blocked, other requests, such as POST, only if they were not sent completely, so the server
+ * can't have processed them. Requests with non-repeatable entity are never retried. Maximum
+ * number of retries and delays between them are set on the client, see {@link
+ * AsyncHttpClient#setMaxRetriesAndBackoff(int, int, int)}. <p>&nbsp;</p> Requests are also
+ * retried when the server answers with one of the retryable status codes, 429 and 503 by
+ * default. Such retry waits
+ * for the time given by Retry-After header, either in seconds or as HTTP-date, or for the
+ * backoff delay if the header is missing. Total time spent waiting for status retries of a single
+ * request is capped, once the cap would be exceeded the response is delivered to the response
+ * handler as is. Only methods listed as retryable, by default the idempotent ones, are retried.
+ */
+public class RetryPolicy {
+
+    public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 60 * 1000;
+    private static final String LOG_TAG = "RetryPolicy";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+    // process-wide additions of deprecated AsyncHttpClient#allowRetryExceptionClass and #blockRetryExceptionClass
+    private static final Set<Class<?>> globalAllowed = new CopyOnWriteArraySet<Class<?>>();
+    private static final Set<Class<?>> globalBlocked = new CopyOnWriteArraySet<Class<?>>();
+    private static final AtomicInteger globalVersion = new AtomicInteger();
+
+    private final Set<Class<?>> allowed = new CopyOnWriteArraySet<Class<?>>();
+    private final Set<Class<?>> blocked = new CopyOnWriteArraySet<Class<?>>();
+    private final ConcurrentHashMap<Class<?>, Classification> classifications = new ConcurrentHashMap<Class<?>, Classification>();
+    private volatile int classifiedVersion = globalVersion.get();
+    private volatile Set<Integer> retryStatusCodes = toSet(429, 503);
+    private volatile Set<String> retryMethods = toSet("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE");
+    private volatile long maxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+
+    public RetryPolicy() {
+        // Retry if the server dropped connection on us
+        allowed.add(NoHttpResponseException.class);
+        // retry-this, since it may happens as part of a Wi-Fi to 3G failover
+        allowed.add(UnknownHostException.class);
+        // retry-this, since it may happens as part of a Wi-Fi to 3G failover
+        allowed.add(SocketException.class);
+
+        // never retry timeouts
+        blocked.add(InterruptedIOException.class);
+        // never retry SSL handshake failures
+        blocked.add(SSLException.class);
+    }
+
+    static void addGlobalAllowed(Class<?> cls) {
+        globalAllowed.add(cls);
+        globalVersion.incrementAndGet();
+    }
+
+    static void addGlobalBlocked(Class<?> cls) {
+        globalBlocked.add(cls);
+        globalVersion.incrementAndGet();
+    }
+
+    private static <T> Set<T> toSet(T... values) {
+        Set<T> set = new HashSet<T>();
+        Collections.addAll(set, values);
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Sets status codes for which requests are retried, default are 429 and 503
+     *
+     * @param statusCodes retryable status codes, none to disable status retries
+     * @return this RetryPolicy to allow fluid syntax
+     */
+    public RetryPolicy setRetryStatusCodes(int... statusCodes) {
+        Set<Integer> codes = new HashSet<Integer>();
+        for (int statusCode : statusCodes) {
+            codes.add(statusCode);
+        }
+        this.retryStatusCodes = Collections.unmodifiableSet(codes);
+        return this;
+    }
+
+    /**
+     * Sets methods of requests which are safe to retry even if they were sent, both on exceptions
+     * and on retryable status codes, default are the idempotent methods GET, HEAD, OPTIONS, PUT,
+     * DELETE and TRACE
+     *
+     * @param methods retryable methods, case insensitive
+     * @return this RetryPolicy to allow fluid syntax
+     */
+    public RetryPolicy setRetryMethods(String... methods) {
+        Set<String> upperCased = new HashSet<String>();
+        for (String method : methods) {
+            upperCased.add(method.toUpperCase(Locale.US));
+        }
+        this.retryMethods = Collections.unmodifiableSet(upperCased);
+        return this;
+    }
+
+    /**
+     * Makes failures by given exception class, or its subclasses, retryable. Allowed exceptions
+     * take precedence over blocked ones.
+     *
+     * @param cls exception class
+     * @return this RetryPolicy to allow fluid syntax
+     */
+    public RetryPolicy allowRetryExceptionClass(Class<?> cls) {
+        allowed.add(Utils.notNull(cls, "cls"));
+        classifications.clear();
+        return this;
+    }
+
+    /**
+     * Prevents retries of failures by given exception class, or its subclasses
+     *
+     * @param cls exception class
+     * @return this RetryPolicy to allow fluid syntax
+     */
+    public RetryPolicy blockRetryExceptionClass(Class<?> cls) {
+        blocked.add(Utils.notNull(cls, "cls"));
+        classifications.clear();
+        return this;
+    }
+
+    /**
+     * Sets maximum of total time a single request may wait for status retries
+     *
+     * @param maxRetryAfterMillis maximum wait in milliseconds
+     * @return this RetryPolicy to allow fluid syntax
+     */
+    public RetryPolicy setMaxRetryAfter(long maxRetryAfterMillis) {
+        Utils.asserts(maxRetryAfterMillis >= 0, "maxRetryAfterMillis must not be negative");
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+        return this;
+    }
+
+    /**
+     * Returns maximum of total time a single request may wait for status retries
+     *
+     * @return maximum wait in milliseconds
+     */
+    public long getMaxRetryAfter() {
+        return maxRetryAfterMillis;
+    }
+
+    /**
+     * Checks whether request which failed with given exception can be retried
+     *
+     * @param exception failure of the last execution
+     * @param request   failed request
+     * @param sent      whether the request was sent completely
+     * @return true if the request can be retried without risk of duplicate processing
+     */
+    public boolean isRetryable(IOException exception, HttpUriRequest request, boolean sent) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return false;
+            }
+        }
+        Classification classification = classify(exception.getClass());
+        if (classification == Classification.BLOCKED) {
+            return false;
+        }
+        if (isIdempotent(request.getMethod())) {
+            return true;
+        }
+        // request may have been processed already, once it was sent completely
+        return !sent;
+    }
+
+    /**
+     * Checks whether method is safe to retry even if the request was sent
+     *
+     * @param method request method
+     * @return true for idempotent methods, see {@link #setRetryMethods(String...)}
+     */
+    public boolean isIdempotent(String method) {
+        return retryMethods.contains(method.toUpperCase(Locale.US));
+    }
+
+    private Classification classify(Class<?> exceptionClass) {
+        int version = globalVersion.get();
+        if (classifiedVersion != version) {
+            classifications.clear();
+            classifiedVersion = version;
+        }
+        Classification classification = classifications.get(exceptionClass);
+        if (classification == null) {
+            if (isAssignable(allowed, exceptionClass) || isAssignable(globalAllowed, exceptionClass)) {
+                classification = Classification.ALLOWED;
+            } else if (isAssignable(blocked, exceptionClass) || isAssignable(globalBlocked, exceptionClass)) {
+                classification = Classification.BLOCKED;
+            } else {
+                classification = Classification.UNKNOWN;
+            }
+            classifications.put(exceptionClass, classification);
+        }
+        return classification;
+    }
+
+    private static boolean isAssignable(Set<Class<?>> classes, Class<?> exceptionClass) {
+        for (Class<?> cls : classes) {
+            if (cls.isAssignableFrom(exceptionClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether response to request with given method should be retried
+     *
+     * @param method     method of the request
+     * @param statusCode status code of the response
+     * @return true if both method and status are retryable
+     */
+    public boolean isRetryableStatus(String method, int statusCode) {
+        return retryStatusCodes.contains(statusCode) && isIdempotent(method);
+    }
+
+    /**
+     * Returns delay requested by Retry-After header of the response
+     *
+     * @param response response to be retried
+     * @return delay in milliseconds, 0 for dates in the past, -1 if the header is missing or
+     * malformed
+     */
+    public static long getRetryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader(HEADER_RETRY_AFTER);
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE : Math.max(0, seconds * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            if (date == null) {
+                AsyncHttpClient.log.w(LOG_TAG, "Malformed Retry-After header: " + value);
+                return -1;
+            }
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private enum Classification {
+        ALLOWED, BLOCKED, UNKNOWN
+    }
+}
@@ -21,15 +21,19 @@ package com.loopj.android.http;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.HttpEntity;
@@ -60,10 +64,13 @@ import cz.msebera.android.httpclient.HttpEntity;
 public abstract class SaxAsyncHttpResponseHandler<T extends DefaultHandler> extends AsyncHttpResponseHandler {
 
     private final static String LOG_TAG = "SaxAsyncHttpRH";
+    private final static int READER_BUFFER_SIZE = 32 * 1024;
     /**
      * Generic Type of handler
      */
     private T handler = null;
+    private XmlParserPool parserPool = null;
+    private boolean usePullParser;
 
     /**
      * Constructs new SaxAsyncHttpResponseHandler with given handler instance
@@ -79,6 +86,55 @@ public abstract class SaxAsyncHttpResponseHandler<T extends DefaultHandler> exte
         this.handler = t;
     }
 
+    /**
+     * Pooled bodies are not supported, the body is parsed while it is read
+     *
+     * @return always false
+     */
+    @Override
+    public boolean getUsePooledBody() {
+        return false;
+    }
+
+    /**
+     * Returns pool providing parsers for the responses
+     *
+     * @return pool set by {@link #setParserPool(XmlParserPool)}, or shared {@link
+     * XmlParserPool#getDefault()} instance
+     */
+    public XmlParserPool getParserPool() {
+        return parserPool == null ? XmlParserPool.getDefault() : parserPool;
+    }
+
+    /**
+     * Sets pool providing parsers for the responses
+     *
+     * @param parserPool parser pool, null to use the shared default one
+     */
+    public void setParserPool(XmlParserPool parserPool) {
+        this.parserPool = parserPool;
+    }
+
+    public boolean getUsePullParser() {
+        return usePullParser;
+    }
+
+    /**
+     * Sets whether the response is parsed by {@link XmlPullParser} instead of SAX parser. Events
+     * of the pull parser are passed to the handler as SAX events. Default is false. <p>&nbsp;</p>
+     * The modes differ in namespace processing. The SAX parser comes from default {@link
+     * javax.xml.parsers.SAXParserFactory}, which is not namespace-aware, so uri and localName of
+     * elements and attributes may be empty and xmlns attributes are reported as attributes. The
+     * pull parser is namespace-aware, it reports uri and localName, and does not report xmlns
+     * attributes. Only the qName is the same in both modes, handlers reading other names have to
+     * be checked before switching.
+     *
+     * @param usePullParser whether to use pull parser
+     */
+    public void setUsePullParser(boolean usePullParser) {
+        this.usePullParser = usePullParser;
+    }
+
     /**
      * Deconstructs response into given content handler
      *
@@ -91,24 +147,26 @@ public abstract class SaxAsyncHttpResponseHandler<T extends DefaultHandler> exte
     protected byte[] getResponseData(HttpEntity entity) throws IOException {
         if (entity != null) {
             InputStream instream = entity.getContent();
-            InputStreamReader inputStreamReader = null;
+            Reader reader = null;
             if (instream != null) {
                 try {
-                    SAXParserFactory sfactory = SAXParserFactory.newInstance();
-                    SAXParser sparser = sfactory.newSAXParser();
-                    XMLReader rssReader = sparser.getXMLReader();
-                    rssReader.setContentHandler(handler);
-                    inputStreamReader = new InputStreamReader(instream, getCharset());
-                    rssReader.parse(new InputSource(inputStreamReader));
+                    reader = new BufferedReader(new InputStreamReader(instream, getCharset()), READER_BUFFER_SIZE);
+                    if (usePullParser) {
+                        pullParse(reader);
+                    } else {
+                        saxParse(reader);
+                    }
                 } catch (SAXException e) {
                     AsyncHttpClient.log.e(LOG_TAG, "getResponseData exception", e);
                 } catch (ParserConfigurationException e) {
                     AsyncHttpClient.log.e(LOG_TAG, "getResponseData exception", e);
+                } catch (XmlPullParserException e) {
+                    AsyncHttpClient.log.e(LOG_TAG, "getResponseData exception", e);
                 } finally {
                     AsyncHttpClient.silentCloseInputStream(instream);
-                    if (inputStreamReader != null) {
+                    if (reader != null) {
                         try {
-                            inputStreamReader.close();
+                            reader.close();
                         } catch (IOException e) { /*ignore*/ }
                     }
                 }
@@ -117,6 +175,58 @@ public abstract class SaxAsyncHttpResponseHandler<T extends DefaultHandler> exte
         return null;
     }
 
+    private void saxParse(Reader reader) throws IOException, SAXException, ParserConfigurationException {
+        XmlParserPool pool = getParserPool();
+        SAXParser parser = pool.acquireSaxParser();
+        try {
+            XMLReader xmlReader = parser.getXMLReader();
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(new InputSource(reader));
+        } finally {
+            pool.releaseSaxParser(parser);
+        }
+    }
+
+    /**
+     * Parses the document by pull parser, passing its events to the handler as SAX events
+     */
+    private void pullParse(Reader reader) throws IOException, SAXException, XmlPullParserException {
+        XmlParserPool pool = getParserPool();
+        XmlPullParser parser = pool.acquirePullParser();
+        try {
+            parser.setInput(reader);
+            AttributesImpl attributes = new AttributesImpl();
+            int[] textBounds = new int[2];
+            handler.startDocument();
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                switch (event) {
+                    case XmlPullParser.START_TAG:
+                        attributes.clear();
+                        for (int i = 0; i < parser.getAttributeCount(); i++) {
+                            attributes.addAttribute(parser.getAttributeNamespace(i), parser.getAttributeName(i),
+                                    getQName(parser.getAttributePrefix(i), parser.getAttributeName(i)), "CDATA", parser.getAttributeValue(i));
+                        }
+                        handler.startElement(parser.getNamespace(), parser.getName(), getQName(parser.getPrefix(), parser.getName()), attributes);
+                        break;
+                    case XmlPullParser.END_TAG:
+                        handler.endElement(parser.getNamespace(), parser.getName(), getQName(parser.getPrefix(), parser.getName()));
+                        break;
+                    case XmlPullParser.TEXT:
+                        char[] text = parser.getTextCharacters(textBounds);
+                        handler.characters(text, textBounds[0], textBounds[1]);
+                        break;
+                }
+            }
+            handler.endDocument();
+        } finally {
+            pool.releasePullParser(parser);
+        }
+    }
+
+    private static String getQName(String prefix, String name) {
+        return prefix == null || prefix.length() == 0 ? name : prefix + ':' + name;
+    }
+
     /**
      * Default onSuccess method for this AsyncHttpResponseHandler to override
      *
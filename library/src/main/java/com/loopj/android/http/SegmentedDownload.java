@@ -0,0 +1,455 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpRequest;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpStatus;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.conn.ConnectionReleaseTrigger;
+import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * Downloads a file as several byte ranges fetched concurrently over separate connections, used
+ * by {@link RangeFileAsyncHttpResponseHandler}. Segments are the ranges of {@link
+ * DownloadJournal}, each is written at its offset through {@link FileBlockWriter}, a failed
+ * segment is retried on its own from the last byte written. <p>&nbsp;</p> The first incomplete
+ * segment continues reading the probing response, which must be {@code 206 Partial Content} of
+ * range starting at its position. Requests of other segments carry {@code If-Range}, so they fail
+ * if the remote file changed. Progress is sent from the thread processing the request while it
+ * waits for the segments. <p>&nbsp;</p> Segments of all downloads share at most {@link
+ * #MAX_SEGMENT_THREADS} threads, further segments wait for a free one. Segment requests are
+ * executed directly by the client, so they are not counted by the per-host limit of {@link
+ * AsyncHttpClient#setMaxRequestsPerHost(String, int)}, but they pass {@link CircuitBreaker} of
+ * the request: they fail fast while the circuit of the host is open, their outcomes are recorded
+ * and retries of segments take tokens from the retry budget of the host.
+ */
+final class SegmentedDownload {
+
+    private static final String LOG_TAG = "SegmentedDownload";
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+    static final int MAX_SEGMENT_THREADS = 8;
+    private static ThreadPoolExecutor segmentExecutor;
+
+    private final RangeFileAsyncHttpResponseHandler handler;
+    private final AbstractHttpClient client;
+    private final HttpContext context;
+    private final CircuitBreaker circuitBreaker;
+    private final URI uri;
+    private final String hostname;
+    private final Header[] headers;
+    private final FileChannel channel;
+    private final long length;
+    private final String ifRange;
+    private final int maxRetries;
+    private final Segment[] segments;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates download of ranges of the journal
+     *
+     * @param handler    handler the request was sent with
+     * @param client     client the request was executed by
+     * @param context    context the request was executed in
+     * @param breaker    circuit breaker of the request, can be null
+     * @param channel    channel of the target file
+     * @param journal    journal with ranges of the file and its length
+     * @param maxRetries number of retries of each segment
+     */
+    SegmentedDownload(RangeFileAsyncHttpResponseHandler handler, AbstractHttpClient client, HttpContext context,
+                      CircuitBreaker breaker, FileChannel channel, DownloadJournal journal, int maxRetries) {
+        this.handler = Utils.notNull(handler, "handler");
+        this.client = Utils.notNull(client, "client");
+        this.context = Utils.notNull(context, "context");
+        this.uri = handler.getRequestURI();
+        this.hostname = uri == null ? null : uri.getHost();
+        this.circuitBreaker = hostname == null ? null : breaker;
+        this.headers = handler.getRequestHeaders();
+        this.channel = Utils.notNull(channel, "channel");
+        this.length = journal.getLength();
+        this.ifRange = journal.getIfRange();
+        this.maxRetries = maxRetries;
+        List<DownloadJournal.Range> ranges = journal.getRanges();
+        this.segments = new Segment[ranges.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(ranges.get(i));
+        }
+    }
+
+    /**
+     * Returns length of the whole file from {@code Content-Range} header of response to request
+     * of range starting at the position
+     *
+     * @param response response to the probing request
+     * @param position first byte requested
+     * @return length of the file, -1 if the response is not a partial response from the position
+     * or the length is unknown
+     */
+    static long getTotalLength(HttpResponse response, long position) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+            return -1;
+        }
+        Header header = response.getFirstHeader(AsyncHttpClient.HEADER_CONTENT_RANGE);
+        long[] range = header == null ? null : parseContentRange(header.getValue());
+        return range == null || range[0] != position ? -1 : range[2];
+    }
+
+    /**
+     * Parses value of {@code Content-Range} header in form {@code bytes first-last/length}
+     *
+     * @param value header value
+     * @return first byte, last byte and length, length is -1 if it is unknown, null if the value
+     * is malformed
+     */
+    static long[] parseContentRange(String value) {
+        String prefix = "bytes ";
+        if (value == null || !value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return null;
+        }
+        int dash = value.indexOf('-', prefix.length());
+        int slash = value.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(value.substring(prefix.length(), dash).trim());
+            long last = Long.parseLong(value.substring(dash + 1, slash).trim());
+            String total = value.substring(slash + 1).trim();
+            return new long[]{first, last, "*".equals(total) ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets headers of the request, so that the response is not compressed and byte ranges match
+     * the file
+     *
+     * @param request request to be sent
+     */
+    static void prepareRequest(HttpRequest request) {
+        request.setHeader(AsyncHttpClient.HEADER_ACCEPT_ENCODING, ENCODING_IDENTITY);
+    }
+
+    /**
+     * Closes connection of the response without reading rest of its body
+     *
+     * @param response response which is not going to be read
+     */
+    static void abortResponse(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        try {
+            InputStream instream = entity == null ? null : entity.getContent();
+            if (instream instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) instream).abortConnection();
+            }
+            AsyncHttpClient.silentCloseInputStream(instream);
+        } catch (IOException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "Cannot abort response", e);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getSegmentExecutor() {
+        if (segmentExecutor == null) {
+            segmentExecutor = new ThreadPoolExecutor(MAX_SEGMENT_THREADS, MAX_SEGMENT_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new SegmentThreadFactory());
+            segmentExecutor.allowCoreThreadTimeOut(true);
+        }
+        return segmentExecutor;
+    }
+
+    /**
+     * Downloads all segments, returns once they are written or the thread was interrupted
+     *
+     * @param response probing response, its body is the beginning of the first incomplete segment
+     * @throws IOException if a segment failed after all its retries
+     */
+    void download(final HttpResponse response) throws IOException {
+        Future<?>[] futures = new Future<?>[segments.length];
+        boolean complete = false;
+        try {
+            HttpResponse probing = response;
+            for (int i = 0; i < segments.length; i++) {
+                final Segment segment = segments[i];
+                if (segment.isComplete()) {
+                    continue;
+                }
+                final HttpResponse initial = probing;
+                probing = null;
+                futures[i] = getSegmentExecutor().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        segment.download(initial);
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                if (future != null) {
+                    awaitSegment(future);
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                cancel(futures);
+            }
+        }
+        handler.sendProgressMessage(getWritten(), length);
+    }
+
+    private void awaitSegment(Future<?> future) throws IOException {
+        try {
+            while (true) {
+                try {
+                    future.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    handler.sendProgressMessage(getWritten(), length);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segments");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void cancel(Future<?>[] futures) {
+        cancelled = true;
+        for (Segment segment : segments) {
+            segment.abort();
+        }
+        for (Future<?> future : futures) {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+        // channel is closed by the caller, segments must not write anymore
+        for (Future<?> future : futures) {
+            if (future != null && !future.isCancelled()) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    // already reported by the failed segment
+                }
+            }
+        }
+    }
+
+    private long getWritten() {
+        long written = 0;
+        for (Segment segment : segments) {
+            written += segment.range.written.get();
+        }
+        return written;
+    }
+
+    private final class Segment {
+        final DownloadJournal.Range range;
+        private volatile HttpGet request;
+        private volatile InputStream stream;
+
+        Segment(DownloadJournal.Range range) {
+            this.range = range;
+        }
+
+        boolean isComplete() {
+            return range.getPosition() >= range.end;
+        }
+
+        void download(HttpResponse response) throws IOException {
+            int retries = 0;
+            while (!isComplete()) {
+                try {
+                    if (response == null) {
+                        response = execute();
+                    }
+                    transfer(response);
+                } catch (IOException e) {
+                    if (cancelled || Thread.currentThread().isInterrupted() || !isRetryable(e) || retries++ >= maxRetries
+                            || (circuitBreaker != null && !circuitBreaker.tryAcquireRetry(hostname))) {
+                        throw e;
+                    }
+                    AsyncHttpClient.log.w(LOG_TAG, "Segment failed, retrying from byte " + range.getPosition(), e);
+                }
+                response = null;
+            }
+        }
+
+        private HttpResponse execute() throws IOException {
+            HttpGet get = new HttpGet(uri);
+            if (headers != null) {
+                get.setHeaders(headers);
+            }
+            prepareRequest(get);
+            get.setHeader("Range", "bytes=" + range.getPosition() + "-" + (range.end - 1));
+            if (ifRange != null) {
+                get.setHeader("If-Range", ifRange);
+            }
+            request = get;
+            if (cancelled) {
+                throw new InterruptedIOException("Download was cancelled");
+            }
+            // segments are parts of the request, which already deposited its retry token
+            if (circuitBreaker != null && !circuitBreaker.allowRequest(hostname, true)) {
+                throw new CircuitOpenException(hostname);
+            }
+            HttpResponse response;
+            try {
+                response = client.execute(get, context);
+            } catch (IOException e) {
+                onExecutionFailed();
+                throw e;
+            } catch (RuntimeException e) {
+                onExecutionFailed();
+                throw e;
+            }
+            StatusLine status = response.getStatusLine();
+            if (circuitBreaker != null) {
+                if (status.getStatusCode() >= 500) {
+                    circuitBreaker.onFailure(hostname);
+                } else {
+                    circuitBreaker.onSuccess(hostname);
+                }
+            }
+            Header header = response.getFirstHeader(AsyncHttpClient.HEADER_CONTENT_RANGE);
+            long[] contentRange = header == null ? null : parseContentRange(header.getValue());
+            if (status.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT || contentRange == null || contentRange[0] != range.getPosition()) {
+                get.abort();
+                throw new HttpResponseException(status.getStatusCode(), "Server did not return requested range: " + status.getReasonPhrase());
+            }
+            return response;
+        }
+
+        private void onExecutionFailed() {
+            if (circuitBreaker != null && !cancelled) {
+                circuitBreaker.onFailure(hostname);
+            }
+        }
+
+        private void transfer(HttpResponse response) throws IOException {
+            HttpEntity entity = response.getEntity();
+            InputStream instream = entity == null ? null : entity.getContent();
+            if (instream == null) {
+                throw new IOException("Response of segment has no content");
+            }
+            stream = instream;
+            boolean drained = false;
+            try {
+                if (cancelled) {
+                    throw new InterruptedIOException("Download was cancelled");
+                }
+                long position = range.getPosition();
+                handler.transferToFile(instream, channel, position, range.end - position, range.written, range, length, false);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Segment was interrupted");
+                }
+                if (!isComplete()) {
+                    throw new IOException("Response of segment ended prematurely");
+                }
+                // the probing response continues beyond the first segment
+                try {
+                    drained = instream.read() == -1;
+                } catch (IOException e) {
+                    AsyncHttpClient.log.d(LOG_TAG, "Cannot drain response of segment", e);
+                }
+            } finally {
+                stream = null;
+                // closing would read the rest of the response to reuse the connection
+                if (!drained) {
+                    abortConnection(instream);
+                }
+                AsyncHttpClient.silentCloseInputStream(instream);
+            }
+        }
+
+        private void abortConnection(InputStream instream) {
+            if (instream instanceof ConnectionReleaseTrigger) {
+                try {
+                    ((ConnectionReleaseTrigger) instream).abortConnection();
+                } catch (IOException e) {
+                    AsyncHttpClient.log.w(LOG_TAG, "Cannot abort segment connection", e);
+                }
+            }
+        }
+
+        private boolean isRetryable(IOException e) {
+            if (e instanceof CircuitOpenException) {
+                return false;
+            }
+            if (e instanceof HttpResponseException) {
+                return ((HttpResponseException) e).getStatusCode() >= 500;
+            }
+            return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+        }
+
+        void abort() {
+            abortConnection(stream);
+            HttpGet _request = request;
+            if (_request != null) {
+                _request.abort();
+            }
+        }
+    }
+
+    private static class SegmentThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "AsyncHttpClient segment #" + count.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single daemon thread shared by the library for delayed work, such as timeouts of {@link
+ * RequestFuture} or retry backoff of {@link AsyncHttpRequest}. Scheduled tasks must be short,
+ * they must never block the timer thread.
+ */
+final class SharedTimer {
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AsyncHttpClient timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private SharedTimer() {
+    }
+
+    /**
+     * Runs task once given delay elapses
+     *
+     * @param task  task to run, on the timer thread
+     * @param delay delay before the task is run
+     * @param unit  unit of the delay
+     * @return handle of scheduled task, to be passed to {@link #cancel(ScheduledFuture)}
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+
+    /**
+     * Cancels scheduled task and removes it from the timer queue right away, so long delays of
+     * cancelled tasks don't pile up in memory
+     *
+     * @param task handle returned by {@link #schedule(Runnable, long, TimeUnit)}, may be null
+     * @return true if the task got cancelled before it was run
+     */
+    static boolean cancel(ScheduledFuture<?> task) {
+        if (task != null && task.cancel(false)) {
+            TIMER.remove((Runnable) task);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.os.Looper;
+import android.os.Message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
+
+/**
+ * Response handler which streams the body in chunks as it is read, and never holds more than a
+ * few chunks of it in memory, so responses of any size are processed in constant memory.
+ * <p>&nbsp;</p> Chunks are passed to {@link #onBodyChunk(byte[], int, int)} on the thread reading
+ * the response, or in order on an executor set by {@link #setChunkExecutor(Executor, int)}. With
+ * an executor, reading stops once the given number of chunks waits for processing, so a slow
+ * consumer slows down the download instead of filling the memory. Reading can also be paused
+ * explicitly by {@link #pause()}, which keeps the worker thread waiting until {@link #resume()}
+ * or cancellation. <p>&nbsp;</p> {@link #onSuccess(int, Header[], byte[])} and {@link
+ * #onFailure(int, Header[], byte[], Throwable)} are fired once the whole body was processed, the
+ * body passed to them is always null. If the request is retried after the body was partially
+ * read, {@link #onResponseStart(int, Header[], long)} is fired again and the body is streamed
+ * from its beginning. <p>&nbsp;</p>
+ * <pre>
+ * client.get("https://example.com/export.csv", new StreamingResponseHandler() {
+ *     &#064;Override
+ *     public void onBodyChunk(byte[] buffer, int offset, int length) throws IOException {
+ *         outputStream.write(buffer, offset, length);
+ *     }
+ *     ...
+ * });
+ * </pre>
+ */
+public abstract class StreamingResponseHandler extends AsyncHttpResponseHandler {
+
+    public static final int DEFAULT_MAX_PENDING_CHUNKS = 4;
+    private static final String LOG_TAG = "StreamingRH";
+
+    private final Object pauseLock = new Object();
+    private volatile Executor chunkExecutor;
+    private volatile int maxPendingChunks = DEFAULT_MAX_PENDING_CHUNKS;
+    private boolean paused;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new StreamingResponseHandler
+     */
+    public StreamingResponseHandler() {
+        super();
+    }
+
+    /**
+     * Creates a new StreamingResponseHandler with a user-supplied looper, see {@link
+     * AsyncHttpResponseHandler#AsyncHttpResponseHandler(Looper)}
+     *
+     * @param looper The looper to work with
+     */
+    public StreamingResponseHandler(Looper looper) {
+        super(looper);
+    }
+
+    /**
+     * Creates a new StreamingResponseHandler, see {@link AsyncHttpResponseHandler#AsyncHttpResponseHandler(boolean)}
+     *
+     * @param usePoolThread Whether to use the pool's thread to fire callbacks
+     */
+    public StreamingResponseHandler(boolean usePoolThread) {
+        super(usePoolThread);
+    }
+
+    /**
+     * Sets executor processing the chunks, chunks are processed one at a time in order of the
+     * body, even if the executor has several threads
+     *
+     * @param executor         executor to process chunks on, null to process them on the thread
+     *                         reading the response
+     * @param maxPendingChunks number of chunks which may wait for processing before reading
+     *                         stops, must be positive
+     * @return this StreamingResponseHandler to allow fluid syntax
+     */
+    public StreamingResponseHandler setChunkExecutor(Executor executor, int maxPendingChunks) {
+        Utils.asserts(maxPendingChunks > 0, "maxPendingChunks must be positive");
+        this.chunkExecutor = executor;
+        this.maxPendingChunks = maxPendingChunks;
+        return this;
+    }
+
+    /**
+     * Stops reading of the body after the current chunk, until {@link #resume()} is called
+     */
+    public void pause() {
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * Resumes reading of the body paused by {@link #pause()}
+     */
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns whether reading of the body is paused
+     *
+     * @return boolean
+     */
+    public boolean isPaused() {
+        synchronized (pauseLock) {
+            return paused;
+        }
+    }
+
+    /**
+     * Pooled bodies are not supported, the body is streamed
+     *
+     * @return always false
+     */
+    @Override
+    public boolean getUsePooledBody() {
+        return false;
+    }
+
+    /**
+     * Fired on the thread reading the response, before the first chunk of the body
+     *
+     * @param statusCode    the status code of the response
+     * @param headers       return headers, if any
+     * @param contentLength length of the body, negative if unknown
+     */
+    public void onResponseStart(int statusCode, Header[] headers, long contentLength) {
+        // default action is to do nothing...
+    }
+
+    /**
+     * Fired for every chunk of the body, in order. The buffer is reused once the method returns,
+     * its content must be copied if it is needed later. Throwing an exception stops reading and
+     * fails the request with that exception.
+     *
+     * @param buffer buffer holding the chunk
+     * @param offset offset of the chunk in the buffer
+     * @param length length of the chunk
+     * @throws IOException if the chunk cannot be processed
+     */
+    public abstract void onBodyChunk(byte[] buffer, int offset, int length) throws IOException;
+
+    @Override
+    protected void handleMessage(Message message) {
+        if (message.what == CANCEL_MESSAGE) {
+            // wake up paused reading of cancelled request
+            synchronized (pauseLock) {
+                cancelled = true;
+                pauseLock.notifyAll();
+            }
+        }
+        super.handleMessage(message);
+    }
+
+    private boolean awaitResumed() {
+        synchronized (pauseLock) {
+            while (paused && !cancelled) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !cancelled;
+        }
+    }
+
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        cancelled = false;
+        StatusLine status = response.getStatusLine();
+        Header[] headers = response.getAllHeaders();
+        HttpEntity entity = response.getEntity();
+        long contentLength = entity == null ? -1 : entity.getContentLength();
+        onResponseStart(status.getStatusCode(), headers, contentLength);
+
+        Throwable consumerError = null;
+        InputStream instream = entity == null ? null : entity.getContent();
+        if (instream != null) {
+            BufferPool pool = getBufferPool();
+            Executor executor = chunkExecutor;
+            ChunkPipeline pipeline = executor == null ? null : new ChunkPipeline(executor, maxPendingChunks, pool);
+            byte[] direct = pipeline == null ? pool.acquire(ResponseBody.CHUNK_SIZE) : null;
+            try {
+                long count = 0;
+                // do not read further if request has been cancelled
+                while (!Thread.currentThread().isInterrupted() && awaitResumed()) {
+                    byte[] buffer = pipeline == null ? direct : pipeline.acquireBuffer();
+                    int l = instream.read(buffer);
+                    if (l == -1) {
+                        if (pipeline != null) {
+                            pipeline.recycle(buffer);
+                        }
+                        break;
+                    }
+                    count += l;
+                    if (pipeline == null) {
+                        try {
+                            onBodyChunk(buffer, 0, l);
+                        } catch (Throwable t) {
+                            consumerError = t;
+                            break;
+                        }
+                    } else {
+                        pipeline.deliver(buffer, l);
+                        if ((consumerError = pipeline.getError()) != null) {
+                            break;
+                        }
+                    }
+                    sendProgressMessage(count, (contentLength <= 0 ? 1 : contentLength));
+                }
+                if (pipeline != null) {
+                    pipeline.drain();
+                    consumerError = pipeline.getError();
+                }
+            } finally {
+                if (pipeline != null) {
+                    pipeline.abort();
+                }
+                pool.release(direct);
+                AsyncHttpClient.silentCloseInputStream(instream);
+                AsyncHttpClient.endEntityViaReflection(entity);
+            }
+        }
+
+        // additional cancellation check as streaming can take non-zero time to process
+        if (!Thread.currentThread().isInterrupted() && !cancelled) {
+            if (consumerError != null) {
+                AsyncHttpClient.log.w(LOG_TAG, "onBodyChunk failed, stopped reading the body", consumerError);
+                sendFailureMessage(status.getStatusCode(), headers, null, consumerError);
+            } else if (status.getStatusCode() >= 300) {
+                sendFailureMessage(status.getStatusCode(), headers, null, new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+            } else {
+                sendSuccessMessage(status.getStatusCode(), headers, null);
+            }
+        }
+    }
+
+    /**
+     * Passes chunks to the executor one at a time, in order, limiting number of chunks waiting
+     * for processing
+     */
+    private class ChunkPipeline implements Runnable {
+        private final Executor executor;
+        private final int maxPendingChunks;
+        private final BufferPool pool;
+        private final Semaphore permits;
+        private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+        private boolean running;
+        private volatile boolean aborted;
+        private volatile Throwable error;
+
+        ChunkPipeline(Executor executor, int maxPendingChunks, BufferPool pool) {
+            this.executor = executor;
+            this.maxPendingChunks = maxPendingChunks;
+            this.pool = pool;
+            this.permits = new Semaphore(maxPendingChunks);
+        }
+
+        Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Blocks until less than the maximum of chunks waits for processing
+         */
+        byte[] acquireBuffer() throws InterruptedIOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for chunk processing");
+            }
+            return pool.acquire(ResponseBody.CHUNK_SIZE);
+        }
+
+        void recycle(byte[] buffer) {
+            pool.release(buffer);
+            permits.release();
+        }
+
+        void deliver(final byte[] buffer, final int length) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (error == null && !aborted && !cancelled) {
+                            onBodyChunk(buffer, 0, length);
+                        }
+                    } catch (Throwable t) {
+                        error = t;
+                    } finally {
+                        recycle(buffer);
+                    }
+                }
+            };
+            synchronized (queue) {
+                queue.add(task);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                AsyncHttpClient.log.w(LOG_TAG, "Chunk executor rejected the chunk, processing it on reading thread", e);
+                run();
+            }
+        }
+
+        /**
+         * Skips chunks which were not processed yet, reading of the body has stopped
+         */
+        void abort() {
+            aborted = true;
+        }
+
+        /**
+         * Blocks until all delivered chunks were processed
+         */
+        void drain() throws InterruptedIOException {
+            try {
+                permits.acquire(maxPendingChunks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for chunk processing");
+            }
+            permits.release(maxPendingChunks);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (queue) {
+                    task = queue.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+    }
+}
@@ -92,10 +92,16 @@ public class SyncHttpClient extends AsyncHttpClient {
 		/*
          * will execute the request directly
 		*/
-        newAsyncHttpRequest(client, httpContext, uriRequest, contentType, responseHandler, context).run();
+        AsyncHttpRequest request = newAsyncHttpRequest(client, httpContext, uriRequest, contentType, responseHandler, context);
+        prepareRequest(request);
+        request.run();
 
         // Return a Request Handle that cannot be used to cancel the request
         // because it is already complete by the time this returns
-        return new RequestHandle(null);
+        RequestHandle requestHandle = new RequestHandle(null);
+        if (responseHandler instanceof FutureResponseHandler) {
+            ((FutureResponseHandler) responseHandler).setRequestHandle(requestHandle);
+        }
+        return requestHandle;
     }
 }
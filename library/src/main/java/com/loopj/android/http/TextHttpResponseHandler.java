@@ -18,9 +18,18 @@
 
 package com.loopj.android.http;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 
 import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
 
 /**
  * Used to intercept and handle the responses from requests made using {@link AsyncHttpClient}. The
@@ -56,6 +65,10 @@ import cz.msebera.android.httpclient.Header;
 public abstract class TextHttpResponseHandler extends AsyncHttpResponseHandler {
 
     private static final String LOG_TAG = "TextHttpRH";
+    // initial capacity of text of responses with unknown or large length
+    private static final int MAX_INITIAL_CAPACITY = 256 * 1024;
+
+    private boolean decodeOnReadingThread;
 
     /**
      * Creates new instance with default UTF-8 encoding
@@ -94,6 +107,122 @@ public abstract class TextHttpResponseHandler extends AsyncHttpResponseHandler {
         }
     }
 
+    /**
+     * Decodes pooled response body as string of given charset and releases the body
+     *
+     * @param body    response body, can be null
+     * @param charset charset to decode the body with
+     * @return String of set encoding or null
+     */
+    public static String getResponseString(ResponseBody body, String charset) {
+        if (body == null) {
+            return null;
+        }
+        try {
+            return body.decode(charset);
+        } catch (IOException e) {
+            AsyncHttpClient.log.e(LOG_TAG, "Encoding response into string failed", e);
+            return null;
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Returns whether the response is decoded into text on the thread reading it
+     *
+     * @return boolean
+     */
+    public boolean isDecodeOnReadingThread() {
+        return decodeOnReadingThread;
+    }
+
+    /**
+     * Sets whether the response is decoded into text incrementally while it is read, on the
+     * thread running the request, so that {@link #onSuccess(int, Header[], String)} and {@link
+     * #onFailure(int, Header[], String, Throwable)} receive ready String and the looper thread
+     * does no decoding. {@link #onSuccess(int, Header[], byte[])} and {@link #onFailure(int,
+     * Header[], byte[], Throwable)} are then not called, so do not enable it if they are
+     * overridden. Ignored when {@link #setUsePooledBody(boolean)} is enabled. Default is false.
+     *
+     * @param decodeOnReadingThread whether to decode the response on the reading thread
+     */
+    public void setDecodeOnReadingThread(boolean decodeOnReadingThread) {
+        this.decodeOnReadingThread = decodeOnReadingThread;
+    }
+
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        if (!isDecodeOnReadingThread() || getUsePooledBody()) {
+            super.sendResponseMessage(response);
+            return;
+        }
+        // do not process if request has been cancelled
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        final StatusLine status = response.getStatusLine();
+        final Header[] headers = response.getAllHeaders();
+        final String responseString = readResponseString(response.getEntity());
+        // additional cancellation check as decoding can take non-zero time to process
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        flushProgress();
+        postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (status.getStatusCode() >= 300) {
+                    onFailure(status.getStatusCode(), headers, responseString, new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+                } else {
+                    onSuccess(status.getStatusCode(), headers, responseString);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes response HttpEntity contents as they are read, with leading UTF-8 byte order mark
+     * removed
+     *
+     * @param entity can be null
+     * @return response text, null if there is no body or its charset is not supported
+     * @throws IOException if reading entity failed
+     */
+    String readResponseString(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+        InputStream instream = entity.getContent();
+        if (instream == null) {
+            return null;
+        }
+        try {
+            String charset = getCharset();
+            if (!Charset.isSupported(charset)) {
+                AsyncHttpClient.log.e(LOG_TAG, "Encoding response into string failed", new UnsupportedEncodingException(charset));
+                return null;
+            }
+            long contentLength = entity.getContentLength();
+            // decoded text has at most as many chars as the body has bytes in common charsets
+            StringBuilder text = new StringBuilder(contentLength < 0 || contentLength > MAX_INITIAL_CAPACITY
+                    ? BUFFER_SIZE : (int) contentLength);
+            Reader reader = new InputStreamReader(new ProgressInputStream(instream, this, contentLength), charset);
+            char[] buffer = new char[BUFFER_SIZE];
+            boolean first = true;
+            int l;
+            while ((l = reader.read(buffer)) != -1) {
+                int offset = first && l > 0 && buffer[0] == UTF8_BOM.charAt(0) ? 1 : 0;
+                first &= l == 0;
+                text.append(buffer, offset, l - offset);
+            }
+            return text.toString();
+        } finally {
+            AsyncHttpClient.silentCloseInputStream(instream);
+            AsyncHttpClient.endEntityViaReflection(entity);
+        }
+    }
+
     /**
      * Called when request fails
      *
@@ -122,4 +251,22 @@ public abstract class TextHttpResponseHandler extends AsyncHttpResponseHandler {
     public void onFailure(int statusCode, Header[] headers, byte[] responseBytes, Throwable throwable) {
         onFailure(statusCode, headers, getResponseString(responseBytes, getCharset()), throwable);
     }
+
+    /**
+     * Decodes pooled response body directly from its chunks, without copying it into a byte
+     * array, see {@link #setUsePooledBody(boolean)}
+     */
+    @Override
+    public void onSuccessBody(int statusCode, Header[] headers, ResponseBody body) {
+        onSuccess(statusCode, headers, getResponseString(body, getCharset()));
+    }
+
+    /**
+     * Decodes pooled response body directly from its chunks, without copying it into a byte
+     * array, see {@link #setUsePooledBody(boolean)}
+     */
+    @Override
+    public void onFailureBody(int statusCode, Header[] headers, ResponseBody body, Throwable throwable) {
+        onFailure(statusCode, headers, getResponseString(body, getCharset()), throwable);
+    }
 }
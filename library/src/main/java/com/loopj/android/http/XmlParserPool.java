@@ -0,0 +1,160 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    https://github.com/android-async-http/android-async-http
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        https://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.util.Xml;
+
+import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Thread-safe pool of XML parsers used by {@link SaxAsyncHttpResponseHandler}, so the parser
+ * factory is looked up once and parsers are reset and reused between responses instead of being
+ * constructed for each of them. <p>&nbsp;</p> Parsers must be released once the parsing finished
+ * and must not be used afterwards. Number of idle parsers is limited, parsers over the limit are
+ * left to the garbage collector.
+ */
+public class XmlParserPool {
+
+    public static final int DEFAULT_MAX_IDLE_PARSERS = 4;
+    private static final String LOG_TAG = "XmlParserPool";
+    private static XmlParserPool defaultPool;
+
+    private final int maxIdleParsers;
+    private final ConcurrentLinkedQueue<SAXParser> saxParsers = new ConcurrentLinkedQueue<SAXParser>();
+    private final AtomicInteger idleSaxParsers = new AtomicInteger();
+    private final ConcurrentLinkedQueue<XmlPullParser> pullParsers = new ConcurrentLinkedQueue<XmlPullParser>();
+    private final AtomicInteger idlePullParsers = new AtomicInteger();
+    private SAXParserFactory saxParserFactory;
+
+    /**
+     * Creates pool holding at most given number of idle parsers of each kind
+     *
+     * @param maxIdleParsers limit of idle SAX and pull parsers
+     */
+    public XmlParserPool(int maxIdleParsers) {
+        Utils.asserts(maxIdleParsers >= 0, "maxIdleParsers must not be negative");
+        this.maxIdleParsers = maxIdleParsers;
+    }
+
+    /**
+     * Returns pool shared by all handlers which were not given their own pool
+     *
+     * @return shared instance
+     */
+    public static synchronized XmlParserPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new XmlParserPool(DEFAULT_MAX_IDLE_PARSERS);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Borrows SAX parser from the pool, or creates a new one if there is no idle parser
+     *
+     * @return SAX parser in its initial state
+     * @throws ParserConfigurationException if the parser cannot be created
+     * @throws SAXException                 if the parser cannot be created
+     */
+    public SAXParser acquireSaxParser() throws ParserConfigurationException, SAXException {
+        SAXParser parser = saxParsers.poll();
+        if (parser != null) {
+            idleSaxParsers.decrementAndGet();
+            return parser;
+        }
+        // factories are not thread-safe
+        synchronized (this) {
+            if (saxParserFactory == null) {
+                saxParserFactory = SAXParserFactory.newInstance();
+            }
+            return saxParserFactory.newSAXParser();
+        }
+    }
+
+    /**
+     * Resets the SAX parser and returns it to the pool
+     *
+     * @param parser parser acquired from this pool, can be null
+     */
+    public void releaseSaxParser(SAXParser parser) {
+        if (parser == null) {
+            return;
+        }
+        try {
+            parser.reset();
+        } catch (UnsupportedOperationException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "SAX parser cannot be reset, it will not be reused", e);
+            return;
+        }
+        if (idleSaxParsers.incrementAndGet() <= maxIdleParsers) {
+            saxParsers.offer(parser);
+        } else {
+            idleSaxParsers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Borrows namespace-aware pull parser from the pool, or creates a new one if there is no idle
+     * parser. The parser is reset by {@link XmlPullParser#setInput(java.io.Reader)}.
+     *
+     * @return pull parser
+     * @throws XmlPullParserException if the parser cannot be created
+     */
+    public XmlPullParser acquirePullParser() throws XmlPullParserException {
+        XmlPullParser parser = pullParsers.poll();
+        if (parser != null) {
+            idlePullParsers.decrementAndGet();
+            return parser;
+        }
+        parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        return parser;
+    }
+
+    /**
+     * Returns the pull parser to the pool
+     *
+     * @param parser parser acquired from this pool, can be null
+     */
+    public void releasePullParser(XmlPullParser parser) {
+        if (parser == null) {
+            return;
+        }
+        try {
+            // drop reference to the response reader
+            parser.setInput(null);
+        } catch (XmlPullParserException e) {
+            AsyncHttpClient.log.w(LOG_TAG, "Pull parser cannot be reset, it will not be reused", e);
+            return;
+        }
+        if (idlePullParsers.incrementAndGet() <= maxIdleParsers) {
+            pullParsers.offer(parser);
+        } else {
+            idlePullParsers.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.loopj.android.http.sample;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.AsyncHttpResponseHandler;
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import java.util.Locale;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+
+/**
+ * Measures allocations of dispatching handler callbacks, without any network. Every simulated
+ * request sends {@link #PROGRESS_PER_REQUEST} progress events followed by a success. The legacy
+ * run posts them with boxed Object[] payloads, the way the library did before callbacks were
+ * dispatched from pooled events, the current run uses the handler's own send methods.
+ */
+public class DispatchBenchmarkSample extends SampleParentActivity {
+
+    private static final String LOG_TAG = "DispatchBenchmarkSample";
+    private static final int REQUESTS = 10000;
+    private static final int WARMUP_REQUESTS = 1000;
+    private static final int PROGRESS_PER_REQUEST = 10;
+    private static final int BODY_SIZE = 4096;
+
+    @Override
+    public ResponseHandlerInterface getResponseHandler() {
+        return new DispatchResponseHandler();
+    }
+
+    @Override
+    public String getDefaultURL() {
+        return null;
+    }
+
+    @Override
+    public boolean isRequestHeadersAllowed() {
+        return false;
+    }
+
+    @Override
+    public boolean isRequestBodyAllowed() {
+        return false;
+    }
+
+    @Override
+    public int getSampleTitle() {
+        return R.string.title_dispatch_benchmark;
+    }
+
+    @Override
+    public RequestHandle executeSample(AsyncHttpClient client, String URL, Header[] headers, HttpEntity entity, ResponseHandlerInterface responseHandler) {
+        final DispatchResponseHandler handler = (DispatchResponseHandler) responseHandler;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final String legacy = measure(handler, true);
+                final String current = measure(handler, false);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        debugResponse(LOG_TAG, "Object[] payloads: " + legacy);
+                        debugResponse(LOG_TAG, "Pooled events: " + current);
+                    }
+                });
+            }
+        }, LOG_TAG).start();
+        return null;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String measure(DispatchResponseHandler handler, boolean legacy) {
+        Header[] headers = new Header[0];
+        byte[] body = new byte[BODY_SIZE];
+        run(handler, legacy, WARMUP_REQUESTS, headers, body);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = SystemClock.elapsedRealtime();
+        run(handler, legacy, REQUESTS, headers, body);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        return String.format(Locale.US, "%.2f allocations per request, %d ms for %d requests of %d events",
+                (double) allocations / REQUESTS, elapsed, REQUESTS, PROGRESS_PER_REQUEST + 1);
+    }
+
+    private static void run(DispatchResponseHandler handler, boolean legacy, int requests, Header[] headers, byte[] body) {
+        for (int i = 0; i < requests; i++) {
+            for (int p = 1; p <= PROGRESS_PER_REQUEST; p++) {
+                long written = (long) BODY_SIZE * p / PROGRESS_PER_REQUEST;
+                if (legacy) {
+                    handler.sendLegacyProgress(written, BODY_SIZE);
+                } else {
+                    handler.sendProgressMessage(written, BODY_SIZE);
+                }
+            }
+            if (legacy) {
+                handler.sendLegacySuccess(200, headers, body);
+            } else {
+                handler.sendSuccessMessage(200, headers, body);
+            }
+        }
+    }
+
+    private static class DispatchResponseHandler extends AsyncHttpResponseHandler {
+
+        public DispatchResponseHandler() {
+            // Fire callbacks on the sending thread, so only the dispatch itself is measured.
+            super(true);
+            setProgressThrottle(0, 0, 0);
+        }
+
+        void sendLegacyProgress(long bytesWritten, long bytesTotal) {
+            sendMessage(obtainMessage(PROGRESS_MESSAGE, new Object[]{bytesWritten, bytesTotal}));
+        }
+
+        void sendLegacySuccess(int statusCode, Header[] headers, byte[] responseBody) {
+            sendMessage(obtainMessage(SUCCESS_MESSAGE, new Object[]{statusCode, headers, responseBody}));
+        }
+
+        @Override
+        public void onProgress(long bytesWritten, long totalSize) {
+            // only the dispatch is measured
+        }
+
+        @Override
+        public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+            // only the dispatch is measured
+        }
+
+        @Override
+        public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+            // only the dispatch is measured
+        }
+    }
+}
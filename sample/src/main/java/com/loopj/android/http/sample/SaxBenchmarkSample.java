@@ -0,0 +1,175 @@
+package com.loopj.android.http.sample;
+
+import android.os.Debug;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
+import com.loopj.android.http.SaxAsyncHttpResponseHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.entity.ByteArrayEntity;
+
+/**
+ * Measures overhead of parsing small XML feeds, without any network. The same feed is parsed
+ * {@link #RESPONSES} times with SAX parser created by a new SAXParserFactory for every response,
+ * the way the library did before parsers were pooled, then by {@link SaxAsyncHttpResponseHandler}
+ * with pooled SAX parser and with pooled pull parser.
+ */
+public class SaxBenchmarkSample extends SampleParentActivity {
+
+    private static final String LOG_TAG = "SaxBenchmarkSample";
+    private static final int RESPONSES = 2000;
+    private static final int WARMUP_RESPONSES = 200;
+    private static final int FEED_ITEMS = 5;
+
+    @Override
+    public ResponseHandlerInterface getResponseHandler() {
+        return new BenchmarkResponseHandler();
+    }
+
+    @Override
+    public String getDefaultURL() {
+        return null;
+    }
+
+    @Override
+    public boolean isRequestHeadersAllowed() {
+        return false;
+    }
+
+    @Override
+    public boolean isRequestBodyAllowed() {
+        return false;
+    }
+
+    @Override
+    public int getSampleTitle() {
+        return R.string.title_sax_benchmark;
+    }
+
+    @Override
+    public RequestHandle executeSample(AsyncHttpClient client, String URL, Header[] headers, HttpEntity entity, ResponseHandlerInterface responseHandler) {
+        final BenchmarkResponseHandler handler = (BenchmarkResponseHandler) responseHandler;
+        final byte[] feed = createFeed();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final String fresh = measure(handler, feed, Mode.FRESH_SAX);
+                final String pooledSax = measure(handler, feed, Mode.POOLED_SAX);
+                final String pooledPull = measure(handler, feed, Mode.POOLED_PULL);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        debugResponse(LOG_TAG, "Feed of " + feed.length + " bytes");
+                        debugResponse(LOG_TAG, "New SAXParserFactory per response: " + fresh);
+                        debugResponse(LOG_TAG, "Pooled SAX parser: " + pooledSax);
+                        debugResponse(LOG_TAG, "Pooled pull parser: " + pooledPull);
+                    }
+                });
+            }
+        }, LOG_TAG).start();
+        return null;
+    }
+
+    private static byte[] createFeed() {
+        StringBuilder feed = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\"><channel>");
+        feed.append("<title>Sample feed</title><link>https://example.com/</link>");
+        for (int i = 0; i < FEED_ITEMS; i++) {
+            feed.append("<item><title>Item ").append(i).append("</title>")
+                    .append("<link>https://example.com/items/").append(i).append("</link>")
+                    .append("<description>Description of item ").append(i).append("</description>")
+                    .append("<pubDate>Mon, 05 Oct 2026 10:00:00 GMT</pubDate></item>");
+        }
+        feed.append("</channel></rss>");
+        return feed.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String measure(BenchmarkResponseHandler handler, byte[] feed, Mode mode) {
+        try {
+            run(handler, feed, mode, WARMUP_RESPONSES);
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            run(handler, feed, mode, RESPONSES);
+            long elapsed = System.nanoTime() - start;
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            return String.format(Locale.US, "%.1f us and %.1f allocations per response, %d elements",
+                    elapsed / 1000.0 / RESPONSES, (double) allocations / RESPONSES, handler.counter.elements / RESPONSES);
+        } catch (Exception e) {
+            return "failed: " + e;
+        }
+    }
+
+    private static void run(BenchmarkResponseHandler handler, byte[] feed, Mode mode, int responses) throws Exception {
+        handler.setUsePullParser(mode == Mode.POOLED_PULL);
+        handler.counter.elements = 0;
+        for (int i = 0; i < responses; i++) {
+            if (mode == Mode.FRESH_SAX) {
+                XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+                reader.setContentHandler(handler.counter);
+                reader.parse(new InputSource(new InputStreamReader(new ByteArrayInputStream(feed), "UTF-8")));
+            } else {
+                handler.parse(new ByteArrayEntity(feed));
+            }
+        }
+    }
+
+    private enum Mode {
+        FRESH_SAX, POOLED_SAX, POOLED_PULL
+    }
+
+    private static class ElementCounter extends DefaultHandler {
+        int elements;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            elements++;
+        }
+    }
+
+    private static class BenchmarkResponseHandler extends SaxAsyncHttpResponseHandler<ElementCounter> {
+        final ElementCounter counter;
+
+        BenchmarkResponseHandler() {
+            this(new ElementCounter());
+        }
+
+        private BenchmarkResponseHandler(ElementCounter counter) {
+            super(counter);
+            this.counter = counter;
+        }
+
+        void parse(HttpEntity entity) throws IOException {
+            getResponseData(entity);
+        }
+
+        @Override
+        public void onSuccess(int statusCode, Header[] headers, ElementCounter counter) {
+            // only parsing is measured
+        }
+
+        @Override
+        public void onFailure(int statusCode, Header[] headers, ElementCounter counter) {
+            // only parsing is measured
+        }
+    }
+}
@@ -62,7 +62,9 @@ public class WaypointsActivity extends ListActivity {
             new SampleConfig(R.string.title_resume_download, ResumeDownloadSample.class),
             new SampleConfig(R.string.title_digest_auth, DigestAuthSample.class),
             new SampleConfig(R.string.title_use_pool_thread, UsePoolThreadSample.class),
-            new SampleConfig(R.string.title_request_params_debug, RequestParamsDebug.class)
+            new SampleConfig(R.string.title_request_params_debug, RequestParamsDebug.class),
+            new SampleConfig(R.string.title_dispatch_benchmark, DispatchBenchmarkSample.class),
+            new SampleConfig(R.string.title_sax_benchmark, SaxBenchmarkSample.class)
     };
 
     @Override